@@ -1,10 +1,21 @@
 package nl.andrewlalis.grammar_tool;
 
+import nl.andrewlalis.grammar_tool.batch.BatchProcessor;
+import nl.andrewlalis.grammar_tool.batch.BatchSummary;
 import nl.andrewlalis.grammar_tool.grammar.ContextFreeGrammar;
 import nl.andrewlalis.grammar_tool.machine.FiniteStateMachine;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+
 public class GrammarTool {
-	public static void main(String[] args) {
+	public static void main(String[] args) throws IOException {
+		if (args.length > 0 && args[0].equals("batch")) {
+			runBatch(args);
+			return;
+		}
+
 		ContextFreeGrammar g2 = ContextFreeGrammar.fromProductionRules(
 				"S",
 				"S, A, B, C",
@@ -29,4 +40,24 @@ public class GrammarTool {
 		System.out.println(d1);
 		System.out.println("Deterministic? " + d1.isDeterministic());
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Runs a batch job over a directory of specification files. Usage:
+	 * <pre><code>
+	 *     batch &lt;input-dir&gt; &lt;output-dir&gt; [threads] [timeout-seconds]
+	 * </code></pre>
+	 * By default, one thread per available processor is used, with a timeout
+	 * of 30 seconds per file.
+	 */
+	private static void runBatch(String[] args) throws IOException {
+		if (args.length < 3) {
+			System.err.println("Usage: batch <input-dir> <output-dir> [threads] [timeout-seconds]");
+			System.exit(1);
+		}
+		int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+		Duration timeout = Duration.ofSeconds(args.length > 4 ? Long.parseLong(args[4]) : 30);
+		BatchProcessor processor = new BatchProcessor(threads, timeout);
+		BatchSummary summary = processor.process(Path.of(args[1]), Path.of(args[2]));
+		System.out.print(summary);
+	}
+}
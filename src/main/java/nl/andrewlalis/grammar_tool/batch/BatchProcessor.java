@@ -0,0 +1,247 @@
+package nl.andrewlalis.grammar_tool.batch;
+
+import nl.andrewlalis.grammar_tool.grammar.ContextFreeGrammar;
+import nl.andrewlalis.grammar_tool.machine.FiniteStateMachine;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
+
+/**
+ * Processes a directory of finite state machine ({@code .fsm}) and grammar
+ * ({@code .cfg}) specification files. Each file goes through three stages:
+ * <ol>
+ *     <li>Load: the file is read and parsed.</li>
+ *     <li>Transform: machines are determinized, trimmed and minimized, and
+ *     regular grammars are compiled to a minimal machine.</li>
+ *     <li>Write: the result is written to the output directory, in a file
+ *     named after the input file, with the extension of the result appended,
+ *     such as {@code x.cfg.fsm}.</li>
+ * </ol>
+ * Loading and writing run on virtual threads where the runtime supports
+ * them, and otherwise on a pool of I/O threads. Transformations run on a
+ * separate work-stealing pool. At most a fixed number of files are in the
+ * pipeline at once, so that listing the input directory doesn't race ahead of
+ * the workers. Transformations which take longer than the timeout are
+ * interrupted, and reported as timed out.
+ */
+public class BatchProcessor {
+	public static final String MACHINE_EXTENSION = ".fsm";
+	public static final String GRAMMAR_EXTENSION = ".cfg";
+
+	private final int parallelism;
+	private final Duration timeout;
+
+	public BatchProcessor(int parallelism, Duration timeout) {
+		if (parallelism < 1) throw new IllegalArgumentException("Parallelism must be at least 1.");
+		this.parallelism = parallelism;
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Processes all specification files in the given directory.
+	 * @param inputDirectory The directory containing the files to process.
+	 * @param outputDirectory The directory to write results to. It is created
+	 *                        if it doesn't exist yet.
+	 * @return A summary of the results of all files.
+	 * @throws IOException If the directories could not be read or created.
+	 */
+	public BatchSummary process(Path inputDirectory, Path outputDirectory) throws IOException {
+		Files.createDirectories(outputDirectory);
+		List<Path> files;
+		try (var stream = Files.list(inputDirectory)) {
+			files = stream
+					.filter(Files::isRegularFile)
+					.filter(p -> p.toString().endsWith(MACHINE_EXTENSION) || p.toString().endsWith(GRAMMAR_EXTENSION))
+					.sorted()
+					.collect(Collectors.toList());
+		}
+
+		ExecutorService ioExecutor = this.newIoExecutor();
+		ExecutorService transformExecutor = Executors.newWorkStealingPool(this.parallelism);
+		ScheduledExecutorService timeoutScheduler = Executors.newSingleThreadScheduledExecutor();
+		Semaphore inFlight = new Semaphore(this.parallelism * 2);
+		long start = System.nanoTime();
+		try {
+			List<CompletableFuture<FileResult>> futures = new ArrayList<>(files.size());
+			for (Path file : files) {
+				inFlight.acquireUninterruptibly();
+				Job job = new Job(file, outputDirectory);
+				CompletableFuture<FileResult> future = CompletableFuture.runAsync(job::load, ioExecutor)
+						.thenCompose(v -> this.transform(job, transformExecutor, timeoutScheduler))
+						.thenRunAsync(job::write, ioExecutor)
+						.handle((v, e) -> job.toResult(e));
+				future.whenComplete((r, e) -> inFlight.release());
+				futures.add(future);
+			}
+			List<FileResult> results = futures.stream().map(CompletableFuture::join).collect(Collectors.toList());
+			return new BatchSummary(results, Duration.ofNanos(System.nanoTime() - start));
+		} finally {
+			ioExecutor.shutdownNow();
+			transformExecutor.shutdownNow();
+			timeoutScheduler.shutdownNow();
+		}
+	}
+
+	/**
+	 * Creates the executor for the load and write stages, which gives each task
+	 * its own virtual thread if the runtime supports them. This is looked up
+	 * reflectively, since the project targets a Java version without them.
+	 * Otherwise, a fixed pool of platform threads is used.
+	 */
+	private ExecutorService newIoExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return Executors.newFixedThreadPool(this.parallelism);
+		}
+	}
+
+	/**
+	 * Runs the transform stage of a job on the given executor. A timer is
+	 * started once the job begins running, which fails the returned future and
+	 * interrupts the worker thread if the job is still running when it fires.
+	 * The interrupt only stops the job inside loops which check for it, which
+	 * are those of grammar conversion, reachability searches, determinization
+	 * and minimization. The remaining single passes over a machine or grammar
+	 * don't check, so a timed out job keeps its worker thread until such a
+	 * pass finishes.
+	 */
+	private CompletableFuture<Void> transform(Job job, ExecutorService executor, ScheduledExecutorService scheduler) {
+		CompletableFuture<Void> result = new CompletableFuture<>();
+		executor.execute(() -> {
+			Thread worker = Thread.currentThread();
+			Object lock = new Object();
+			boolean[] done = {false};
+			ScheduledFuture<?> timer = scheduler.schedule(() -> {
+				synchronized (lock) {
+					if (done[0]) return;
+					job.transformNanos = this.timeout.toNanos();
+					if (result.completeExceptionally(new TimeoutException("Transformation exceeded " + this.timeout.toMillis() + " ms."))) {
+						worker.interrupt();
+					}
+				}
+			}, this.timeout.toNanos(), TimeUnit.NANOSECONDS);
+			long transformStart = System.nanoTime();
+			try {
+				job.transform();
+				job.transformNanos = System.nanoTime() - transformStart;
+				result.complete(null);
+			} catch (Throwable t) {
+				job.transformNanos = System.nanoTime() - transformStart;
+				result.completeExceptionally(t);
+			} finally {
+				synchronized (lock) {
+					done[0] = true;
+				}
+				timer.cancel(false);
+				// Clear any interrupt from the timer, so it doesn't affect the next job on this thread.
+				Thread.interrupted();
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Mutable state of a single file as it moves through the pipeline. Each
+	 * stage only runs after the previous one completed, so no two threads
+	 * access a job at the same time, except for the timings, since a timed out
+	 * transformation may still be running when its result is reported.
+	 */
+	private static class Job {
+		private final Path file;
+		private final Path outputDirectory;
+		private FiniteStateMachine machine;
+		private ContextFreeGrammar grammar;
+		private Object output;
+		private Path outputFile;
+		private String message;
+		private volatile long loadNanos;
+		private volatile long transformNanos;
+		private volatile long writeNanos;
+
+		private Job(Path file, Path outputDirectory) {
+			this.file = file;
+			this.outputDirectory = outputDirectory;
+		}
+
+		private void load() {
+			long start = System.nanoTime();
+			try {
+				String content = Files.readString(this.file);
+				if (this.file.toString().endsWith(MACHINE_EXTENSION)) {
+					this.machine = FiniteStateMachine.fromString(content);
+				} else {
+					this.grammar = ContextFreeGrammar.fromString(content);
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			} finally {
+				this.loadNanos = System.nanoTime() - start;
+			}
+		}
+
+		private void transform() {
+			// Keep the source extension, so that files like x.fsm and x.cfg don't write to the same output.
+			String baseName = this.file.getFileName().toString();
+			if (this.grammar != null && !this.grammar.isRegular()) {
+				this.output = this.grammar;
+				this.outputFile = this.outputDirectory.resolve(baseName + GRAMMAR_EXTENSION);
+				this.message = "Grammar is not regular, because of rules " + this.grammar.findNonRegularRules();
+				return;
+			}
+			FiniteStateMachine input = this.machine != null ? this.machine : FiniteStateMachine.fromGrammar(this.grammar);
+			this.outputFile = this.outputDirectory.resolve(baseName + MACHINE_EXTENSION);
+			if (input.isEmpty()) {
+				this.output = input;
+				this.message = "Language is empty";
+				return;
+			}
+			FiniteStateMachine minimal = input.toMinimal();
+			if (!minimal.isDeterministic()) {
+				throw new IllegalStateException("Minimized machine is not deterministic.");
+			}
+			this.output = minimal;
+			this.message = input.getStateCount() + " states -> " + minimal.getStateCount() + " states";
+		}
+
+		private void write() {
+			long start = System.nanoTime();
+			try {
+				if (this.output instanceof FiniteStateMachine) {
+					((FiniteStateMachine) this.output).writeTo(this.outputFile);
+				} else {
+					((ContextFreeGrammar) this.output).writeTo(this.outputFile);
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			} finally {
+				this.writeNanos = System.nanoTime() - start;
+			}
+		}
+
+		private FileResult toResult(Throwable error) {
+			FileResult.Status status = FileResult.Status.SUCCEEDED;
+			String message = this.message;
+			if (error != null) {
+				Throwable cause = (error instanceof CompletionException && error.getCause() != null) ? error.getCause() : error;
+				status = (cause instanceof TimeoutException) ? FileResult.Status.TIMED_OUT : FileResult.Status.FAILED;
+				message = cause.getClass().getSimpleName() + ": " + cause.getMessage();
+			}
+			return new FileResult(
+					this.file,
+					status,
+					message,
+					Duration.ofNanos(this.loadNanos),
+					Duration.ofNanos(this.transformNanos),
+					Duration.ofNanos(this.writeNanos)
+			);
+		}
+	}
+}
@@ -0,0 +1,51 @@
+package nl.andrewlalis.grammar_tool.batch;
+
+import lombok.Getter;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Summary of a completed batch job, containing the result of each file, and
+ * the total wall-clock time of the job.
+ */
+@Getter
+public class BatchSummary {
+	private final List<FileResult> results;
+	private final Duration elapsedTime;
+
+	public BatchSummary(List<FileResult> results, Duration elapsedTime) {
+		this.results = results;
+		this.elapsedTime = elapsedTime;
+	}
+
+	public long getCount(FileResult.Status status) {
+		return this.results.stream().filter(r -> r.getStatus() == status).count();
+	}
+
+	/**
+	 * @return The number of files processed per second of wall-clock time.
+	 */
+	public double getThroughput() {
+		if (this.elapsedTime.isZero()) return 0;
+		return this.results.size() / (this.elapsedTime.toNanos() / 1_000_000_000.0);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (FileResult result : this.results) {
+			sb.append(result).append("\n");
+		}
+		sb.append(String.format(
+				"Processed %d files in %d ms (%.1f files/s): %d succeeded, %d failed, %d timed out.%n",
+				this.results.size(),
+				this.elapsedTime.toMillis(),
+				this.getThroughput(),
+				this.getCount(FileResult.Status.SUCCEEDED),
+				this.getCount(FileResult.Status.FAILED),
+				this.getCount(FileResult.Status.TIMED_OUT)
+		));
+		return sb.toString();
+	}
+}
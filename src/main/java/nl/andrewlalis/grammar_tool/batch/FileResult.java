@@ -0,0 +1,53 @@
+package nl.andrewlalis.grammar_tool.batch;
+
+import lombok.Getter;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * The outcome of processing a single specification file in a batch, along
+ * with the time that was spent in each stage of the pipeline.
+ */
+@Getter
+public class FileResult {
+	public enum Status {
+		SUCCEEDED,
+		FAILED,
+		TIMED_OUT
+	}
+
+	private final Path file;
+	private final Status status;
+	private final String message;
+	private final Duration loadTime;
+	private final Duration transformTime;
+	private final Duration writeTime;
+
+	public FileResult(Path file, Status status, String message, Duration loadTime, Duration transformTime, Duration writeTime) {
+		this.file = file;
+		this.status = status;
+		this.message = message;
+		this.loadTime = loadTime;
+		this.transformTime = transformTime;
+		this.writeTime = writeTime;
+	}
+
+	public Duration getTotalTime() {
+		return this.loadTime.plus(this.transformTime).plus(this.writeTime);
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"%-9s %8d ms (load %d, transform %d, write %d)  %s: %s",
+				this.status,
+				this.getTotalTime().toMillis(),
+				this.loadTime.toMillis(),
+				this.transformTime.toMillis(),
+				this.writeTime.toMillis(),
+				this.file.getFileName(),
+				this.message
+		);
+	}
+}
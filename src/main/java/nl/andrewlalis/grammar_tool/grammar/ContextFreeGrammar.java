@@ -1,44 +1,189 @@
 package nl.andrewlalis.grammar_tool.grammar;
 
+import lombok.AccessLevel;
 import lombok.Getter;
+import nl.andrewlalis.grammar_tool.machine.FiniteStateMachine;
+import nl.andrewlalis.grammar_tool.util.Graphs;
+import nl.andrewlalis.grammar_tool.util.PersistentSet;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
-import java.util.stream.Collectors;
 
+/**
+ * An immutable context-free grammar. Its symbols and rules are stored in
+ * persistent sets, so that a transformed grammar, such as one produced by
+ * {@link #withRules(Collection)}, shares most of its structure with the
+ * original, and only the added rules need to be validated.
+ */
 @Getter
 public class ContextFreeGrammar {
-	private final Set<Symbol> nonTerminalSymbols;
-	private final Set<Symbol> terminalSymbols;
-	private final Set<ProductionRule> productionRules;
+	private static final String START_MARKER = "start";
+	private static final String NON_TERMINALS_MARKER = "N";
+	private static final String TERMINALS_MARKER = "Σ";
+
+	private final PersistentSet<Symbol> nonTerminalSymbols;
+	private final PersistentSet<Symbol> terminalSymbols;
+	private final PersistentSet<ProductionRule> productionRules;
 	private final Symbol startSymbol;
 
+	/**
+	 * Hash code of the grammar, which is cheap to compute at construction
+	 * because the persistent sets maintain their own hash codes.
+	 */
+	@Getter(AccessLevel.NONE)
+	private final int hash;
+
+	/**
+	 * Index of all production rules, grouped by their begin symbol. Both
+	 * levels are sorted, so iterating over the index visits rules in the same
+	 * order as {@link #toString()}. It is built the first time it's needed,
+	 * so that intermediate grammars in a chain of transformations don't pay
+	 * for it.
+	 */
+	@Getter(AccessLevel.NONE)
+	private volatile SortedMap<Symbol, SortedSet<ProductionRule>> ruleIndex;
+
+	/**
+	 * Deterministic machine which this grammar is compiled to the first time
+	 * that {@link #generates(List)} is called, if the grammar is regular. This
+	 * stays null if the grammar's language is empty, since a machine must
+	 * always have at least one final state.
+	 */
+	@Getter(AccessLevel.NONE)
+	private FiniteStateMachine compiledMachine;
+
+	/**
+	 * Whether {@link #compiledMachine} has been set. It is written after the
+	 * machine, so that reading it also makes the machine visible.
+	 */
+	@Getter(AccessLevel.NONE)
+	private volatile boolean compiled;
+
 	public ContextFreeGrammar(Set<Symbol> nonTerminalSymbols, Set<Symbol> terminalSymbols, Set<ProductionRule> productionRules, Symbol startSymbol) {
-		this.nonTerminalSymbols = Objects.requireNonNull(nonTerminalSymbols);
-		this.terminalSymbols = Objects.requireNonNull(terminalSymbols);
-		this.productionRules = Objects.requireNonNull(productionRules);
-		this.startSymbol = Objects.requireNonNull(startSymbol);
+		this(
+				PersistentSet.copyOf(Objects.requireNonNull(nonTerminalSymbols)),
+				PersistentSet.copyOf(Objects.requireNonNull(terminalSymbols)),
+				PersistentSet.copyOf(Objects.requireNonNull(productionRules)),
+				Objects.requireNonNull(startSymbol)
+		);
 		this.ensureValidElements();
 	}
 
+	/**
+	 * Constructs a grammar from sets which are already known to be valid.
+	 */
+	private ContextFreeGrammar(PersistentSet<Symbol> nonTerminalSymbols, PersistentSet<Symbol> terminalSymbols, PersistentSet<ProductionRule> productionRules, Symbol startSymbol) {
+		this.nonTerminalSymbols = nonTerminalSymbols;
+		this.terminalSymbols = terminalSymbols;
+		this.productionRules = productionRules;
+		this.startSymbol = startSymbol;
+		this.hash = Objects.hash(nonTerminalSymbols, terminalSymbols, productionRules, startSymbol);
+	}
+
 	private void ensureValidElements() {
 		if (!nonTerminalSymbols.contains(startSymbol)) {
 			throw new IllegalArgumentException("Start symbol must be an element of the set of non-terminal symbols.");
 		}
-		Set<Symbol> overlaps = new HashSet<>(this.terminalSymbols);
-		overlaps.retainAll(this.nonTerminalSymbols);
+		this.ensureNotOverlapping(this.terminalSymbols);
+		for (ProductionRule rule : productionRules) {
+			this.ensureValidRule(rule);
+		}
+	}
+
+	private void ensureNotOverlapping(Collection<Symbol> symbols) {
+		Set<Symbol> overlaps = new HashSet<>();
+		for (Symbol s : symbols) {
+			if (this.nonTerminalSymbols.contains(s) && this.terminalSymbols.contains(s)) overlaps.add(s);
+		}
 		if (!overlaps.isEmpty()) {
 			throw new IllegalArgumentException("Terminal and non-terminal symbols are overlapping: " + overlaps);
 		}
-		for (ProductionRule rule : productionRules) {
-			if (!nonTerminalSymbols.contains(rule.getBeginSymbol())) {
-				throw new IllegalArgumentException("Production rule " + rule.toString() + " must begin with a symbol from the set of non-terminals.");
+	}
+
+	private void ensureValidRule(ProductionRule rule) {
+		if (!nonTerminalSymbols.contains(rule.getBeginSymbol())) {
+			throw new IllegalArgumentException("Production rule " + rule.toString() + " must begin with a symbol from the set of non-terminals.");
+		}
+		for (Symbol s : rule.getProducedSymbols()) {
+			if (!nonTerminalSymbols.contains(s) && !terminalSymbols.contains(s)) {
+				throw new IllegalArgumentException("Production rule " + rule.toString() + " must produce a string containing symbols that are elements of either terminals or non-terminals.");
 			}
-			for (Symbol s : rule.getProducedSymbols()) {
-				if (!nonTerminalSymbols.contains(s) && !terminalSymbols.contains(s)) {
-					throw new IllegalArgumentException("Production rule " + rule.toString() + " must produce a string containing symbols that are elements of either terminals or non-terminals.");
-				}
+		}
+	}
+
+	private SortedMap<Symbol, SortedSet<ProductionRule>> getRuleIndex() {
+		SortedMap<Symbol, SortedSet<ProductionRule>> index = this.ruleIndex;
+		if (index == null) {
+			index = new TreeMap<>();
+			for (ProductionRule rule : this.productionRules) {
+				index.computeIfAbsent(rule.getBeginSymbol(), s -> new TreeSet<>()).add(rule);
 			}
+			this.ruleIndex = index;
 		}
+		return index;
+	}
+
+	/**
+	 * Produces a grammar which also contains the given non-terminal symbols.
+	 * Only the new symbols are checked for overlap with the terminals.
+	 * @param symbols The non-terminals to add.
+	 * @return The new grammar.
+	 */
+	public ContextFreeGrammar withNonTerminalSymbols(Collection<Symbol> symbols) {
+		ContextFreeGrammar result = new ContextFreeGrammar(this.nonTerminalSymbols.plusAll(symbols), this.terminalSymbols, this.productionRules, this.startSymbol);
+		result.ensureNotOverlapping(symbols);
+		return result;
+	}
+
+	/**
+	 * Produces a grammar which also contains the given terminal symbols. Only
+	 * the new symbols are checked for overlap with the non-terminals.
+	 * @param symbols The terminals to add.
+	 * @return The new grammar.
+	 */
+	public ContextFreeGrammar withTerminalSymbols(Collection<Symbol> symbols) {
+		ContextFreeGrammar result = new ContextFreeGrammar(this.nonTerminalSymbols, this.terminalSymbols.plusAll(symbols), this.productionRules, this.startSymbol);
+		result.ensureNotOverlapping(symbols);
+		return result;
+	}
+
+	/**
+	 * Produces a grammar which also contains the given rules. Only the new
+	 * rules are validated, and their symbols must already be in the grammar.
+	 * @param rules The rules to add.
+	 * @return The new grammar.
+	 */
+	public ContextFreeGrammar withRules(Collection<ProductionRule> rules) {
+		for (ProductionRule rule : rules) {
+			this.ensureValidRule(rule);
+		}
+		return new ContextFreeGrammar(this.nonTerminalSymbols, this.terminalSymbols, this.productionRules.plusAll(rules), this.startSymbol);
+	}
+
+	/**
+	 * Produces a grammar without the given rules. This never needs any
+	 * validation.
+	 * @param rules The rules to remove.
+	 * @return The new grammar.
+	 */
+	public ContextFreeGrammar withoutRules(Collection<ProductionRule> rules) {
+		return new ContextFreeGrammar(this.nonTerminalSymbols, this.terminalSymbols, this.productionRules.minusAll(rules), this.startSymbol);
+	}
+
+	/**
+	 * Produces a grammar with a different start symbol.
+	 * @param symbol The new start symbol, which must be a non-terminal.
+	 * @return The new grammar.
+	 */
+	public ContextFreeGrammar withStartSymbol(Symbol symbol) {
+		if (!this.nonTerminalSymbols.contains(symbol)) {
+			throw new IllegalArgumentException("Start symbol must be an element of the set of non-terminal symbols.");
+		}
+		return new ContextFreeGrammar(this.nonTerminalSymbols, this.terminalSymbols, this.productionRules, symbol);
 	}
 
 	public boolean isSymbolTerminal(Symbol s) {
@@ -50,11 +195,8 @@ public class ContextFreeGrammar {
 	}
 
 	public Set<ProductionRule> findRulesByStartingSymbol(Symbol s) {
-		Set<ProductionRule> rules = new HashSet<>();
-		for (var rule : this.productionRules) {
-			if (rule.getBeginSymbol().equals(s)) rules.add(rule);
-		}
-		return rules;
+		Set<ProductionRule> rules = this.getRuleIndex().get(s);
+		return rules == null ? new HashSet<>() : new HashSet<>(rules);
 	}
 
 	/**
@@ -89,21 +231,247 @@ public class ContextFreeGrammar {
 		return false;
 	}
 
+	/**
+	 * Determines if a rule is right-linear, that is, it produces zero or more
+	 * terminals, optionally followed by a single non-terminal.
+	 * @param rule The rule to check.
+	 * @return True if the rule is right-linear, or false otherwise.
+	 */
+	public boolean isRuleRightLinear(ProductionRule rule) {
+		List<Symbol> produced = rule.getProducedSymbols();
+		for (int i = 0; i < produced.size() - 1; i++) {
+			if (this.isSymbolNonTerminal(produced.get(i))) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Determines if a rule is left-linear, that is, it produces an optional
+	 * single non-terminal, followed by zero or more terminals.
+	 * @param rule The rule to check.
+	 * @return True if the rule is left-linear, or false otherwise.
+	 */
+	public boolean isRuleLeftLinear(ProductionRule rule) {
+		List<Symbol> produced = rule.getProducedSymbols();
+		for (int i = 1; i < produced.size(); i++) {
+			if (this.isSymbolNonTerminal(produced.get(i))) return false;
+		}
+		return true;
+	}
+
+	public boolean isRightLinear() {
+		return this.productionRules.stream().allMatch(this::isRuleRightLinear);
+	}
+
+	public boolean isLeftLinear() {
+		return this.productionRules.stream().allMatch(this::isRuleLeftLinear);
+	}
+
+	/**
+	 * Determines if this grammar is regular, which is the case if it is either
+	 * entirely right-linear, or entirely left-linear. Regular grammars can be
+	 * converted to a finite state machine using
+	 * {@link FiniteStateMachine#fromGrammar(ContextFreeGrammar)}.
+	 * @return True if the grammar is regular, or false otherwise.
+	 */
+	public boolean isRegular() {
+		return this.isRightLinear() || this.isLeftLinear();
+	}
+
+	/**
+	 * Finds the rules which prevent this grammar from being regular. Since a
+	 * grammar may be either right- or left-linear, this returns the smallest
+	 * of the set of rules which are not right-linear, and the set of rules
+	 * which are not left-linear.
+	 * @return The set of rules which prevent this grammar from being regular.
+	 * This is empty if the grammar is regular.
+	 */
+	public Set<ProductionRule> findNonRegularRules() {
+		Set<ProductionRule> nonRightLinear = new HashSet<>();
+		Set<ProductionRule> nonLeftLinear = new HashSet<>();
+		for (var rule : this.productionRules) {
+			if (!this.isRuleRightLinear(rule)) nonRightLinear.add(rule);
+			if (!this.isRuleLeftLinear(rule)) nonLeftLinear.add(rule);
+		}
+		if (nonRightLinear.isEmpty() || nonLeftLinear.isEmpty()) return new HashSet<>();
+		return nonRightLinear.size() <= nonLeftLinear.size() ? nonRightLinear : nonLeftLinear;
+	}
+
+	/**
+	 * Finds the set of generating non-terminal symbols, which are those from
+	 * which at least one string of only terminals can be derived. Each rule
+	 * keeps a count of the produced non-terminals which are not yet known to
+	 * be generating, so this runs in time linear to the size of the grammar.
+	 * @return The set of generating non-terminals.
+	 */
+	public Set<Symbol> getGeneratingSymbols() {
+		Map<ProductionRule, Integer> remaining = new HashMap<>();
+		Map<Symbol, List<ProductionRule>> rulesBySymbol = new HashMap<>();
+		Deque<Symbol> symbolQueue = new ArrayDeque<>();
+		Set<Symbol> generating = new HashSet<>();
+		for (var rule : this.productionRules) {
+			int count = 0;
+			for (var symbol : rule.getProducedSymbols()) {
+				if (this.isSymbolNonTerminal(symbol)) {
+					rulesBySymbol.computeIfAbsent(symbol, k -> new ArrayList<>()).add(rule);
+					count++;
+				}
+			}
+			remaining.put(rule, count);
+			if (count == 0 && generating.add(rule.getBeginSymbol())) symbolQueue.add(rule.getBeginSymbol());
+		}
+		while (!symbolQueue.isEmpty()) {
+			for (var rule : rulesBySymbol.getOrDefault(symbolQueue.pop(), List.of())) {
+				int count = remaining.merge(rule, -1, Integer::sum);
+				if (count == 0 && generating.add(rule.getBeginSymbol())) symbolQueue.add(rule.getBeginSymbol());
+			}
+		}
+		return generating;
+	}
+
+	/**
+	 * Finds the set of symbols, both terminal and non-terminal, which appear
+	 * in at least one string which can be derived from the start symbol.
+	 * @return The set of reachable symbols, including the start symbol.
+	 */
+	public Set<Symbol> getReachableSymbols() {
+		Set<Symbol> reachable = new HashSet<>();
+		reachable.add(this.startSymbol);
+		Deque<Symbol> symbolQueue = new ArrayDeque<>(reachable);
+		while (!symbolQueue.isEmpty()) {
+			for (var rule : this.getRuleIndex().getOrDefault(symbolQueue.pop(), Collections.emptySortedSet())) {
+				for (var symbol : rule.getProducedSymbols()) {
+					if (reachable.add(symbol) && this.isSymbolNonTerminal(symbol)) symbolQueue.add(symbol);
+				}
+			}
+		}
+		return reachable;
+	}
+
+	/**
+	 * Determines if the language of this grammar is empty, which is the case
+	 * if the start symbol is not generating.
+	 * @return True if this grammar does not generate any string.
+	 */
+	public boolean isEmpty() {
+		return !this.getGeneratingSymbols().contains(this.startSymbol);
+	}
+
+	/**
+	 * Determines if the language of this grammar is finite. Only useful rules
+	 * are considered, which are those that can take part in deriving a string
+	 * of terminals from the start symbol. The language is infinite if and only
+	 * if a non-terminal can derive itself, surrounded by symbols which derive
+	 * at least one terminal. This is checked by finding the strongly connected
+	 * components of the graph with an edge from the begin symbol of each
+	 * useful rule to each non-terminal that it produces, and looking for an
+	 * edge inside a component which is accompanied by such symbols.
+	 * @return True if this grammar generates a finite number of strings.
+	 */
+	public boolean isFinite() {
+		Set<Symbol> generating = this.getGeneratingSymbols();
+		if (!generating.contains(this.startSymbol)) return true;
+		// Find the rules which only produce generating symbols, and are reachable through such rules.
+		Set<Symbol> useful = new HashSet<>();
+		useful.add(this.startSymbol);
+		Deque<Symbol> symbolQueue = new ArrayDeque<>(useful);
+		List<ProductionRule> usefulRules = new ArrayList<>();
+		while (!symbolQueue.isEmpty()) {
+			for (var rule : this.getRuleIndex().getOrDefault(symbolQueue.pop(), Collections.emptySortedSet())) {
+				boolean allGenerating = true;
+				for (var symbol : rule.getProducedSymbols()) {
+					if (this.isSymbolNonTerminal(symbol) && !generating.contains(symbol)) {
+						allGenerating = false;
+						break;
+					}
+				}
+				if (!allGenerating) continue;
+				usefulRules.add(rule);
+				for (var symbol : rule.getProducedSymbols()) {
+					if (this.isSymbolNonTerminal(symbol) && useful.add(symbol)) symbolQueue.add(symbol);
+				}
+			}
+		}
+
+		// Find the non-terminals which can derive a non-empty string of terminals.
+		Map<Symbol, List<ProductionRule>> rulesBySymbol = new HashMap<>();
+		Set<Symbol> nonEmpty = new HashSet<>();
+		for (var rule : usefulRules) {
+			for (var symbol : rule.getProducedSymbols()) {
+				if (this.isSymbolTerminal(symbol)) {
+					if (nonEmpty.add(rule.getBeginSymbol())) symbolQueue.add(rule.getBeginSymbol());
+				} else {
+					rulesBySymbol.computeIfAbsent(symbol, k -> new ArrayList<>()).add(rule);
+				}
+			}
+		}
+		while (!symbolQueue.isEmpty()) {
+			for (var rule : rulesBySymbol.getOrDefault(symbolQueue.pop(), List.of())) {
+				if (nonEmpty.add(rule.getBeginSymbol())) symbolQueue.add(rule.getBeginSymbol());
+			}
+		}
+
+		Map<Symbol, List<Symbol>> successors = new HashMap<>();
+		for (var rule : usefulRules) {
+			for (var symbol : rule.getProducedSymbols()) {
+				if (this.isSymbolNonTerminal(symbol)) {
+					successors.computeIfAbsent(rule.getBeginSymbol(), k -> new ArrayList<>()).add(symbol);
+				}
+			}
+		}
+		Map<Symbol, Integer> components = Graphs.findStronglyConnectedComponents(useful, s -> successors.getOrDefault(s, List.of()));
+		for (var rule : usefulRules) {
+			List<Symbol> produced = rule.getProducedSymbols();
+			int nonEmptyCount = 0;
+			for (var symbol : produced) {
+				if (this.isSymbolTerminal(symbol) || nonEmpty.contains(symbol)) nonEmptyCount++;
+			}
+			for (var symbol : produced) {
+				if (!this.isSymbolNonTerminal(symbol) || !components.get(symbol).equals(components.get(rule.getBeginSymbol()))) continue;
+				// The symbol itself doesn't count towards the surrounding symbols.
+				int surrounding = nonEmpty.contains(symbol) ? nonEmptyCount - 1 : nonEmptyCount;
+				if (surrounding > 0) return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Determines if the given string of terminals can be generated by this
+	 * grammar. This is only supported for regular grammars, which are compiled
+	 * to a deterministic finite state machine the first time this is called,
+	 * so that each check runs in time linear to the length of the word.
+	 * @param word The string of terminals to check.
+	 * @return True if the word is generated by this grammar, or false otherwise.
+	 * @throws IllegalStateException If the grammar is not regular.
+	 */
+	public boolean generates(List<Symbol> word) {
+		if (!this.compiled) {
+			if (!this.isRegular()) {
+				throw new IllegalStateException("Membership can only be checked for regular grammars. The following rules are not regular: " + this.findNonRegularRules());
+			}
+			if (!this.isEmpty()) {
+				this.compiledMachine = FiniteStateMachine.fromGrammar(this).toDeterministic();
+			}
+			this.compiled = true;
+		}
+		FiniteStateMachine machine = this.compiledMachine;
+		return machine != null && machine.accepts(word);
+	}
+
 	public ContextFreeGrammar toProductiveForm() {
-		Symbol newStart = this.startSymbol;
-		Set<Symbol> nonTerminals = new HashSet<>(this.nonTerminalSymbols);
-		Set<Symbol> terminals = new HashSet<>(this.terminalSymbols);
-		Set<ProductionRule> rules = new HashSet<>(this.productionRules);
+		ContextFreeGrammar result = this;
 		if (this.isSymbolRecursive(this.startSymbol)) {
-			newStart = Symbol.of("_T");
-			nonTerminals.add(newStart);
-			rules.add(ProductionRule.of(newStart, this.startSymbol));
+			Symbol newStart = Symbol.of("_T");
+			result = result.withNonTerminalSymbols(Set.of(newStart))
+					.withRules(Set.of(ProductionRule.of(newStart, this.startSymbol)))
+					.withStartSymbol(newStart);
 		}
 
 		// Find all nullables.
 
 
-		return new ContextFreeGrammar(nonTerminals, terminals, rules, newStart);
+		return result;
 	}
 
 	@Override
@@ -111,41 +479,185 @@ public class ContextFreeGrammar {
 		if (this == o) return true;
 		if (o == null || getClass() != o.getClass()) return false;
 		ContextFreeGrammar that = (ContextFreeGrammar) o;
-		return getNonTerminalSymbols().equals(that.getNonTerminalSymbols())
+		return this.hash == that.hash
+				&& getStartSymbol().equals(that.getStartSymbol())
+				&& getNonTerminalSymbols().equals(that.getNonTerminalSymbols())
 				&& getTerminalSymbols().equals(that.getTerminalSymbols())
-				&& getProductionRules().equals(that.getProductionRules())
-				&& getStartSymbol().equals(that.getStartSymbol());
+				&& getProductionRules().equals(that.getProductionRules());
 	}
 
 	@Override
 	public int hashCode() {
-		return Objects.hash(getNonTerminalSymbols(), getTerminalSymbols(), getProductionRules(), getStartSymbol());
+		return this.hash;
 	}
 
 	@Override
 	public String toString() {
 		StringBuilder sb = new StringBuilder();
-		Map<Symbol, SortedSet<ProductionRule>> rulesMap = new HashMap<>();
-		SortedSet<Symbol> beginSymbols = new TreeSet<>();
+		try {
+			this.writeTo(sb);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Writes this grammar in the format which is read by
+	 * {@link #fromString(String)}, with one line per non-terminal. The rules
+	 * of the start symbol are written first, followed by all others in sorted
+	 * order. The output is produced in a single pass over the sorted rule
+	 * index, so even very large grammars can be written without building the
+	 * whole string first. Delimiters in symbols are escaped with a backslash.
+	 * Anything the rules don't imply is written on header lines first: the
+	 * start symbol if it has no rules, as {@code start = S}, and the full set
+	 * of non-terminals or terminals if some of them aren't used by any rule,
+	 * as {@code N = S, A} and {@code Σ = a, b}.
+	 * @param out The destination to write to.
+	 * @throws IOException If writing fails.
+	 */
+	public void writeTo(Appendable out) throws IOException {
+		SortedMap<Symbol, SortedSet<ProductionRule>> index = this.getRuleIndex();
+		Set<Symbol> impliedNonTerminals = new HashSet<>(index.keySet());
+		if (!index.containsKey(this.startSymbol)) {
+			writeHeader(out, START_MARKER, Set.of(this.startSymbol));
+			impliedNonTerminals.add(this.startSymbol);
+		}
+		if (!impliedNonTerminals.equals(this.nonTerminalSymbols)) {
+			writeHeader(out, NON_TERMINALS_MARKER, this.nonTerminalSymbols);
+		}
+		Set<Symbol> usedTerminals = new HashSet<>();
 		for (ProductionRule rule : this.productionRules) {
-			beginSymbols.add(rule.getBeginSymbol());
-			if (!rulesMap.containsKey(rule.getBeginSymbol())) {
-				rulesMap.put(rule.getBeginSymbol(), new TreeSet<>());
+			for (Symbol symbol : rule.getProducedSymbols()) {
+				if (this.terminalSymbols.contains(symbol)) usedTerminals.add(symbol);
 			}
-			rulesMap.get(rule.getBeginSymbol()).add(rule);
 		}
-		// Do start symbol explicitly at the beginning.
-		beginSymbols.remove(this.startSymbol);
-		sb.append(this.startSymbol.getIdentifier()).append(" -> ");
-		sb.append(rulesMap.get(this.getStartSymbol()).stream().map(ProductionRule::getProducedSymbolsString).collect(Collectors.joining(" | ")));
-		sb.append("\n");
+		if (usedTerminals.size() != this.terminalSymbols.size()) {
+			writeHeader(out, TERMINALS_MARKER, this.terminalSymbols);
+		}
+		SortedSet<ProductionRule> startRules = index.get(this.startSymbol);
+		if (startRules != null) writeRules(out, this.startSymbol, startRules);
+		for (var entry : index.entrySet()) {
+			if (entry.getKey().equals(this.startSymbol)) continue;
+			writeRules(out, entry.getKey(), entry.getValue());
+		}
+	}
+
+	/**
+	 * Writes this grammar to a file, using the same format as
+	 * {@link #writeTo(Appendable)}.
+	 * @param file The file to write to. It is replaced if it already exists.
+	 * @throws IOException If writing fails.
+	 */
+	public void writeTo(Path file) throws IOException {
+		try (Writer writer = Files.newBufferedWriter(file)) {
+			this.writeTo(writer);
+		}
+	}
 
-		for (Symbol s : beginSymbols) {
-			sb.append(s.getIdentifier()).append(" -> ");
-			sb.append(rulesMap.get(s).stream().map(ProductionRule::getProducedSymbolsString).collect(Collectors.joining(" | ")));
-			sb.append("\n");
+	private static void writeHeader(Appendable out, String marker, Set<Symbol> symbols) throws IOException {
+		out.append(marker).append(" =");
+		boolean first = true;
+		for (Symbol symbol : new TreeSet<>(symbols)) {
+			out.append(first ? " " : ", ");
+			first = false;
+			ProductionRule.appendSymbol(out, symbol);
 		}
-		return sb.toString();
+		out.append('\n');
+	}
+
+	private static void writeRules(Appendable out, Symbol beginSymbol, SortedSet<ProductionRule> rules) throws IOException {
+		ProductionRule.appendSymbol(out, beginSymbol);
+		out.append(" -> ");
+		boolean firstRule = true;
+		for (ProductionRule rule : rules) {
+			if (!firstRule) out.append(" | ");
+			firstRule = false;
+			if (rule.isEmpty()) {
+				out.append("ε");
+				continue;
+			}
+			boolean firstSymbol = true;
+			for (Symbol symbol : rule.getProducedSymbols()) {
+				if (!firstSymbol) out.append(',');
+				firstSymbol = false;
+				ProductionRule.appendSymbol(out, symbol);
+			}
+		}
+		out.append('\n');
+	}
+
+	/**
+	 * Constructs a grammar from a series of lines which each contain the rules
+	 * for one non-terminal, using the same format as {@link #toString()}:
+	 * <pre><code>
+	 *     S -> A,B
+	 *     A -> a,S | ε
+	 *     B -> b,B | ε
+	 * </code></pre>
+	 * The symbol of the first line is the start symbol. Every symbol which
+	 * begins a rule is a non-terminal, and all other symbols are terminals.
+	 * Any of these can be given explicitly instead, with the header lines
+	 * {@code start = S}, {@code N = S, A, B} and {@code Σ = a, b}. A
+	 * backslash escapes the character after it, so that symbols can contain
+	 * the delimiters {@code , | = >}, or consist of just {@code ε}.
+	 * @param grammarString The string containing the grammar specification.
+	 * @return The grammar that was created.
+	 */
+	public static ContextFreeGrammar fromString(String grammarString) {
+		Symbol start = null;
+		Set<Symbol> nonTerminals = null;
+		Set<Symbol> terminals = null;
+		Set<ProductionRule> rules = new HashSet<>();
+		Symbol firstBeginSymbol = null;
+		for (String line : grammarString.split("\\n+")) {
+			if (line.isBlank()) continue;
+			List<String> header = ProductionRule.splitUnescaped(line, '=');
+			if (header.size() == 2) {
+				String marker = header.get(0).trim();
+				Set<Symbol> symbols = parseSymbols(header.get(1));
+				if (marker.equals(START_MARKER) && symbols.size() == 1) {
+					start = symbols.iterator().next();
+				} else if (marker.equals(NON_TERMINALS_MARKER)) {
+					nonTerminals = symbols;
+				} else if (marker.equals(TERMINALS_MARKER)) {
+					terminals = symbols;
+				} else {
+					throw new IllegalArgumentException("Invalid grammar header: \"" + line + "\"");
+				}
+				continue;
+			}
+			Set<ProductionRule> lineRules = ProductionRule.of(line);
+			if (firstBeginSymbol == null) firstBeginSymbol = lineRules.iterator().next().getBeginSymbol();
+			rules.addAll(lineRules);
+		}
+		if (start == null) start = firstBeginSymbol;
+		if (start == null) throw new IllegalArgumentException("Grammar does not contain any rules or a start symbol.");
+		if (nonTerminals == null) {
+			nonTerminals = new HashSet<>();
+			nonTerminals.add(start);
+			for (var rule : rules) {
+				nonTerminals.add(rule.getBeginSymbol());
+			}
+		}
+		if (terminals == null) {
+			terminals = new HashSet<>();
+			for (var rule : rules) {
+				for (var symbol : rule.getProducedSymbols()) {
+					if (!nonTerminals.contains(symbol)) terminals.add(symbol);
+				}
+			}
+		}
+		return new ContextFreeGrammar(nonTerminals, terminals, rules, start);
+	}
+
+	private static Set<Symbol> parseSymbols(String s) {
+		Set<Symbol> symbols = new HashSet<>();
+		if (s.isBlank()) return symbols;
+		for (String symbolExpr : ProductionRule.splitUnescaped(s, ',')) {
+			symbols.add(ProductionRule.parseSymbol(symbolExpr));
+		}
+		return symbols;
 	}
 
 	public static ContextFreeGrammar fromProductionRules(String start, String nonTerminals, String terminals, String... ruleExpressions) {
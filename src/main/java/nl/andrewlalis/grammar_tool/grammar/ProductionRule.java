@@ -1,7 +1,9 @@
 package nl.andrewlalis.grammar_tool.grammar;
 
+import lombok.AccessLevel;
 import lombok.Getter;
 
+import java.io.IOException;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -9,10 +11,13 @@ import java.util.stream.Collectors;
 public class ProductionRule implements Comparable<ProductionRule> {
 	private final Symbol beginSymbol;
 	private final List<Symbol> producedSymbols;
+	@Getter(AccessLevel.NONE)
+	private final int hash;
 
 	public ProductionRule(Symbol beginSymbol, List<Symbol> producedSymbols) {
 		this.beginSymbol = Objects.requireNonNull(beginSymbol);
-		this.producedSymbols = Objects.requireNonNull(producedSymbols);
+		this.producedSymbols = List.copyOf(producedSymbols);
+		this.hash = Objects.hash(this.beginSymbol, this.producedSymbols);
 	}
 
 	public boolean isEmpty() {
@@ -29,12 +34,12 @@ public class ProductionRule implements Comparable<ProductionRule> {
 		if (this == o) return true;
 		if (o == null || getClass() != o.getClass()) return false;
 		ProductionRule that = (ProductionRule) o;
-		return getBeginSymbol().equals(that.getBeginSymbol()) && getProducedSymbols().equals(that.getProducedSymbols());
+		return this.hash == that.hash && getBeginSymbol().equals(that.getBeginSymbol()) && getProducedSymbols().equals(that.getProducedSymbols());
 	}
 
 	@Override
 	public int hashCode() {
-		return Objects.hash(getBeginSymbol(), getProducedSymbols());
+		return this.hash;
 	}
 
 	@Override
@@ -46,7 +51,13 @@ public class ProductionRule implements Comparable<ProductionRule> {
 	public int compareTo(ProductionRule o) {
 		int beginComparison = this.beginSymbol.compareTo(o.beginSymbol);
 		if (beginComparison != 0) return beginComparison;
-		return -1 * Integer.compare(this.producedSymbols.size(), o.producedSymbols.size());
+		int sizeComparison = -1 * Integer.compare(this.producedSymbols.size(), o.producedSymbols.size());
+		if (sizeComparison != 0) return sizeComparison;
+		for (int i = 0; i < this.producedSymbols.size(); i++) {
+			int symbolComparison = this.producedSymbols.get(i).compareTo(o.producedSymbols.get(i));
+			if (symbolComparison != 0) return symbolComparison;
+		}
+		return 0;
 	}
 
 	public static ProductionRule of(Symbol beginSymbol, Symbol... producedSymbols) {
@@ -62,20 +73,80 @@ public class ProductionRule implements Comparable<ProductionRule> {
 		return rules;
 	}
 
+	/**
+	 * Parses all rules in an expression of the form {@code S -> a,S | ε}. A
+	 * backslash escapes the character after it, so that symbols can contain
+	 * the delimiters {@code , | = >}, or consist of just {@code ε}.
+	 * @param expression The expression to parse.
+	 * @return The rules in the expression.
+	 */
 	public static Set<ProductionRule> of(String expression) {
-		Scanner scanner = new Scanner(expression);
-		Symbol beginSymbol = Symbol.of(scanner.next("\\w+"));
-		scanner.next("->");
-		String[] productions = scanner.nextLine().split("\\|");
+		List<String> sides = splitUnescaped(expression, '>');
+		if (sides.size() != 2 || !sides.get(0).stripTrailing().endsWith("-")) {
+			throw new IllegalArgumentException("Invalid production rule format: \"" + expression + "\"");
+		}
+		String beginExpr = sides.get(0).stripTrailing();
+		Symbol beginSymbol = parseSymbol(beginExpr.substring(0, beginExpr.length() - 1));
 		Set<ProductionRule> rules = new HashSet<>();
-		for (String productionExpr : productions) {
-			String[] symbolNames = productionExpr.split(",");
-			if (symbolNames.length == 1 && symbolNames[0].trim().equalsIgnoreCase("ε")) {
+		for (String productionExpr : splitUnescaped(sides.get(1), '|')) {
+			if (productionExpr.trim().equalsIgnoreCase("ε")) {
 				rules.add(ProductionRule.of(beginSymbol));
 				continue;
 			}
-			rules.add(ProductionRule.of(beginSymbol, Symbol.arrayOf(symbolNames)));
+			List<Symbol> producedSymbols = new ArrayList<>();
+			for (String symbolExpr : splitUnescaped(productionExpr, ',')) {
+				producedSymbols.add(parseSymbol(symbolExpr));
+			}
+			rules.add(new ProductionRule(beginSymbol, producedSymbols));
 		}
 		return rules;
 	}
+
+	/**
+	 * Splits a string at each occurrence of the delimiter which is not escaped
+	 * by a backslash. The parts are returned as-is, still containing escapes.
+	 */
+	static List<String> splitUnescaped(String s, char delimiter) {
+		List<String> parts = new ArrayList<>();
+		int start = 0;
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '\\') {
+				i++;
+			} else if (c == delimiter) {
+				parts.add(s.substring(start, i));
+				start = i + 1;
+			}
+		}
+		parts.add(s.substring(start));
+		return parts;
+	}
+
+	/**
+	 * Parses a symbol which was written by {@link #appendSymbol(Appendable, Symbol)}.
+	 */
+	static Symbol parseSymbol(String s) {
+		s = s.trim();
+		StringBuilder sb = new StringBuilder(s.length());
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '\\' && i + 1 < s.length()) c = s.charAt(++i);
+			sb.append(c);
+		}
+		return Symbol.of(sb.toString());
+	}
+
+	/**
+	 * Writes a symbol's identifier, escaping any characters which would
+	 * otherwise be read as delimiters by {@link #of(String)}.
+	 */
+	static void appendSymbol(Appendable out, Symbol symbol) throws IOException {
+		String identifier = symbol.getIdentifier();
+		if (identifier.equalsIgnoreCase("ε")) out.append('\\');
+		for (int i = 0; i < identifier.length(); i++) {
+			char c = identifier.charAt(i);
+			if (c == '\\' || c == ',' || c == '|' || c == '=' || c == '>') out.append('\\');
+			out.append(c);
+		}
+	}
 }
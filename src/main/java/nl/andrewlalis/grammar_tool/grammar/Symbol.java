@@ -11,9 +11,11 @@ public class Symbol implements Comparable<Symbol> {
 
 	@Getter
 	private final String identifier;
+	private final int hash;
 
 	public Symbol(String identifier) {
 		this.identifier = Objects.requireNonNull(identifier).trim();
+		this.hash = Objects.hash(this.identifier);
 	}
 
 	@Override
@@ -21,12 +23,12 @@ public class Symbol implements Comparable<Symbol> {
 		if (this == o) return true;
 		if (o == null || getClass() != o.getClass()) return false;
 		Symbol symbol = (Symbol) o;
-		return getIdentifier().equals(symbol.getIdentifier());
+		return this.hash == symbol.hash && getIdentifier().equals(symbol.getIdentifier());
 	}
 
 	@Override
 	public int hashCode() {
-		return Objects.hash(getIdentifier());
+		return this.hash;
 	}
 
 	@Override
@@ -1,19 +1,58 @@
 package nl.andrewlalis.grammar_tool.machine;
 
+import nl.andrewlalis.grammar_tool.grammar.ContextFreeGrammar;
+import nl.andrewlalis.grammar_tool.grammar.ProductionRule;
 import nl.andrewlalis.grammar_tool.grammar.Symbol;
+import nl.andrewlalis.grammar_tool.util.Graphs;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class FiniteStateMachine {
+	/**
+	 * Marks the optional line which lists the alphabet in the text format.
+	 */
+	private static final String ALPHABET_MARKER = "Σ";
+
 	private final Set<Symbol> alphabet;
 	private final Set<State> states;
 	private final Set<State> finalStates;
 	private final State startState;
 	private final Set<Transition> transitions;
 
+	/**
+	 * Index of all transitions, grouped by their start state and then by their
+	 * accepting symbol. Every state has an entry, even if it has no outgoing
+	 * transitions. Both levels are sorted, so iterating over the index visits
+	 * states and transitions in the same order as {@link #toString()}.
+	 */
+	private final SortedMap<State, SortedMap<Symbol, SortedSet<State>>> transitionIndex;
+
+	/**
+	 * Whether every state has at most one transition per symbol, and there
+	 * are no epsilon transitions, so that {@link #accepts(List)} can follow a
+	 * single state instead of simulating a set of states.
+	 */
+	private final boolean singleTransitionPerSymbol;
+
+	/**
+	 * Whether every symbol of the alphabet is used by at least one transition.
+	 * If not, {@link #writeTo(Appendable)} writes the alphabet explicitly, so
+	 * that the output still round-trips.
+	 */
+	private final boolean allSymbolsUsed;
+
 	public FiniteStateMachine(Set<Symbol> alphabet, Set<State> states, Set<State> finalStates, State startState, Set<Transition> transitions) {
 		this.alphabet = Objects.requireNonNull(alphabet);
 		this.states = Objects.requireNonNull(states);
@@ -21,6 +60,21 @@ public class FiniteStateMachine {
 		this.startState = Objects.requireNonNull(startState);
 		this.transitions = Objects.requireNonNull(transitions);
 		this.ensureValidElements();
+		this.transitionIndex = new TreeMap<>();
+		for (State state : this.states) {
+			this.transitionIndex.put(state, new TreeMap<>());
+		}
+		boolean singleTransitionPerSymbol = true;
+		Set<Symbol> usedSymbols = new HashSet<>();
+		for (Transition t : this.transitions) {
+			usedSymbols.add(t.getAcceptingSymbol());
+			SortedSet<State> endStates = this.transitionIndex.get(t.getStartState())
+					.computeIfAbsent(t.getAcceptingSymbol(), s -> new TreeSet<>());
+			endStates.add(t.getEndState());
+			if (t.isEpsilon() || endStates.size() > 1) singleTransitionPerSymbol = false;
+		}
+		this.singleTransitionPerSymbol = singleTransitionPerSymbol;
+		this.allSymbolsUsed = usedSymbols.containsAll(this.alphabet);
 	}
 
 	private void ensureValidElements() {
@@ -52,46 +106,320 @@ public class FiniteStateMachine {
 
 	public Set<Transition> getTransitionsStartingAt(State state) {
 		Set<Transition> stateTransitions = new HashSet<>();
-		for (Transition t : this.transitions) {
-			if (t.getStartState().equals(state)) {
-				stateTransitions.add(t);
+		var symbolMap = this.transitionIndex.get(state);
+		if (symbolMap == null) return stateTransitions;
+		for (var entry : symbolMap.entrySet()) {
+			for (State endState : entry.getValue()) {
+				stateTransitions.add(new Transition(state, entry.getKey(), endState));
 			}
 		}
 		return stateTransitions;
 	}
 
 	public Set<State> getNextStates(State currentState, Symbol acceptingSymbol) {
-		Set<State> nextStates = new HashSet<>();
-		for (Transition t : this.transitions) {
-			if (t.getStartState().equals(currentState) && t.getAcceptingSymbol().equals(acceptingSymbol)) {
-				nextStates.add(t.getEndState());
-			}
-		}
-		return nextStates;
+		var symbolMap = this.transitionIndex.get(currentState);
+		if (symbolMap == null) return new HashSet<>();
+		Set<State> nextStates = symbolMap.get(acceptingSymbol);
+		return nextStates == null ? new HashSet<>() : new HashSet<>(nextStates);
 	}
 
 	public Set<State> getNextStates(Set<State> states, Symbol acceptingSymbol) {
 		Set<State> nextStates = new HashSet<>();
 		for (State state : states) {
-			nextStates.addAll(this.getNextStates(state, acceptingSymbol));
+			var symbolMap = this.transitionIndex.get(state);
+			if (symbolMap == null) continue;
+			Set<State> stateNextStates = symbolMap.get(acceptingSymbol);
+			if (stateNextStates != null) nextStates.addAll(stateNextStates);
 		}
 		return nextStates;
 	}
 
+	/**
+	 * Gets the set of all states which can be reached from the given state by
+	 * following zero or more epsilon transitions.
+	 * @param currentState The state to get the closure of.
+	 * @return The epsilon closure of the state, which includes the state itself.
+	 */
 	public Set<State> getEpsilonClosure(State currentState) {
-		Set<State> nextStates = this.getNextStates(currentState, Symbol.EMPTY);
-		nextStates.add(currentState);
-		return nextStates;
+		return this.getEpsilonClosure(Set.of(currentState));
 	}
 
+	/**
+	 * Gets the set of all states which can be reached from any of the given
+	 * states by following zero or more epsilon transitions.
+	 * @param states The states to get the closure of.
+	 * @return The epsilon closure of the states, which includes the states
+	 * themselves.
+	 */
 	public Set<State> getEpsilonClosure(Set<State> states) {
-		Set<State> nextStates = this.getNextStates(states, Symbol.EMPTY);
-		nextStates.addAll(states);
-		return nextStates;
+		Set<State> closure = new HashSet<>(states);
+		Deque<State> stateQueue = new ArrayDeque<>(states);
+		while (!stateQueue.isEmpty()) {
+			var symbolMap = this.transitionIndex.get(stateQueue.pop());
+			if (symbolMap == null) continue;
+			Set<State> epsilonStates = symbolMap.get(Symbol.EMPTY);
+			if (epsilonStates == null) continue;
+			for (State next : epsilonStates) {
+				if (closure.add(next)) stateQueue.add(next);
+			}
+		}
+		return closure;
+	}
+
+	/**
+	 * Determines if this machine accepts the given word, by simulating it on
+	 * the set of states it could be in after reading each symbol. This works
+	 * for both deterministic and non-deterministic machines, and runs in time
+	 * linear to the length of the word. If the machine has no epsilon
+	 * transitions and at most one transition per symbol from each state, only
+	 * a single state is followed through the transition index.
+	 * @param word The list of symbols to check. Empty symbols are ignored.
+	 * @return True if the machine ends in a final state after reading the
+	 * word, or false otherwise.
+	 */
+	public boolean accepts(List<Symbol> word) {
+		if (this.singleTransitionPerSymbol) {
+			State currentState = this.startState;
+			for (Symbol symbol : word) {
+				if (symbol.isEmpty()) continue;
+				SortedSet<State> nextStates = this.transitionIndex.get(currentState).get(symbol);
+				if (nextStates == null) return false;
+				currentState = nextStates.first();
+			}
+			return this.finalStates.contains(currentState);
+		}
+		Set<State> currentStates = this.getEpsilonClosure(this.startState);
+		for (Symbol symbol : word) {
+			if (symbol.isEmpty()) continue;
+			currentStates = this.getEpsilonClosure(this.getNextStates(currentStates, symbol));
+			if (currentStates.isEmpty()) return false;
+		}
+		for (State state : currentStates) {
+			if (this.finalStates.contains(state)) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Finds all states which can be reached from the start state.
+	 * @return The set of reachable states.
+	 */
+	public Set<State> getReachableStates() {
+		Set<State> reachable = new HashSet<>();
+		reachable.add(this.startState);
+		Deque<State> stateQueue = new ArrayDeque<>(reachable);
+		while (!stateQueue.isEmpty()) {
+			checkInterrupted();
+			for (Set<State> nextStates : this.transitionIndex.get(stateQueue.pop()).values()) {
+				for (State next : nextStates) {
+					if (reachable.add(next)) stateQueue.add(next);
+				}
+			}
+		}
+		return reachable;
+	}
+
+	/**
+	 * Finds all states from which a final state can be reached, by searching
+	 * backwards from the final states.
+	 * @return The set of co-reachable states.
+	 */
+	public Set<State> getCoReachableStates() {
+		Map<State, List<State>> predecessors = new HashMap<>();
+		for (Transition t : this.transitions) {
+			predecessors.computeIfAbsent(t.getEndState(), s -> new ArrayList<>()).add(t.getStartState());
+		}
+		Set<State> coReachable = new HashSet<>(this.finalStates);
+		Deque<State> stateQueue = new ArrayDeque<>(coReachable);
+		while (!stateQueue.isEmpty()) {
+			checkInterrupted();
+			for (State previous : predecessors.getOrDefault(stateQueue.pop(), List.of())) {
+				if (coReachable.add(previous)) stateQueue.add(previous);
+			}
+		}
+		return coReachable;
+	}
+
+	/**
+	 * Finds all useful states, which are those that are both reachable and
+	 * co-reachable. Only these states take part in accepting any word.
+	 * @return The set of useful states.
+	 */
+	public Set<State> getUsefulStates() {
+		Set<State> useful = this.getReachableStates();
+		useful.retainAll(this.getCoReachableStates());
+		return useful;
+	}
+
+	/**
+	 * Produces a machine which accepts the same language, but only contains
+	 * the useful states of this machine, and the transitions between them.
+	 * @return The trimmed machine.
+	 * @throws IllegalStateException If the language of this machine is empty,
+	 * since a machine must always have at least one final state.
+	 */
+	public FiniteStateMachine toTrimmed() {
+		Set<State> useful = this.getUsefulStates();
+		if (!useful.contains(this.startState)) {
+			throw new IllegalStateException("Cannot trim a machine which does not accept any word.");
+		}
+		Set<State> finalStates = new HashSet<>(this.finalStates);
+		finalStates.retainAll(useful);
+		Set<Transition> transitions = new HashSet<>();
+		for (Transition t : this.transitions) {
+			if (useful.contains(t.getStartState()) && useful.contains(t.getEndState())) transitions.add(t);
+		}
+		return new FiniteStateMachine(new HashSet<>(this.alphabet), useful, finalStates, this.startState, transitions);
+	}
+
+	/**
+	 * Determines if the language of this machine is empty, that is, no final
+	 * state can be reached from the start state.
+	 * @return True if this machine does not accept any word.
+	 */
+	public boolean isEmpty() {
+		for (State state : this.getReachableStates()) {
+			if (this.finalStates.contains(state)) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Determines if the language of this machine is finite. This is the case
+	 * if there is no cycle among the useful states which contains a
+	 * non-epsilon transition, which is checked by finding the strongly
+	 * connected components of the useful states.
+	 * @return True if this machine accepts a finite number of words.
+	 */
+	public boolean isFinite() {
+		Set<State> useful = this.getUsefulStates();
+		Map<State, Integer> components = Graphs.findStronglyConnectedComponents(useful, state -> this.getUsefulSuccessors(state, useful));
+		for (State state : useful) {
+			for (var entry : this.transitionIndex.get(state).entrySet()) {
+				if (entry.getKey().isEmpty()) continue;
+				for (State next : entry.getValue()) {
+					if (components.get(state).equals(components.get(next))) return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Finds a shortest word accepted by this machine, using a breadth-first
+	 * search in which epsilon transitions don't count towards the length.
+	 * @return The shortest accepted word, or empty if no word is accepted.
+	 */
+	public Optional<List<Symbol>> getShortestAcceptedWord() {
+		Map<State, Transition> previous = new HashMap<>();
+		Map<State, Integer> distances = new HashMap<>();
+		distances.put(this.startState, 0);
+		Deque<State> stateQueue = new ArrayDeque<>();
+		stateQueue.add(this.startState);
+		Set<State> done = new HashSet<>();
+		while (!stateQueue.isEmpty()) {
+			State state = stateQueue.pop();
+			if (!done.add(state)) continue;
+			if (this.finalStates.contains(state)) return Optional.of(wordTo(state, previous));
+			int distance = distances.get(state);
+			for (var entry : this.transitionIndex.get(state).entrySet()) {
+				boolean epsilon = entry.getKey().isEmpty();
+				int nextDistance = epsilon ? distance : distance + 1;
+				for (State next : entry.getValue()) {
+					Integer known = distances.get(next);
+					if (known != null && known <= nextDistance) continue;
+					distances.put(next, nextDistance);
+					previous.put(next, new Transition(state, entry.getKey(), next));
+					// Epsilon transitions have no cost, so they're explored first.
+					if (epsilon) {
+						stateQueue.push(next);
+					} else {
+						stateQueue.add(next);
+					}
+				}
+			}
+		}
+		return Optional.empty();
+	}
+
+	/**
+	 * Finds a longest word accepted by this machine, if its language is
+	 * finite. The useful states are grouped into strongly connected
+	 * components, which for a finite language are only connected internally by
+	 * epsilon transitions, and the longest path is found over the resulting
+	 * acyclic graph of components.
+	 * @return The longest accepted word, or empty if no word is accepted.
+	 * @throws IllegalStateException If the language of this machine is
+	 * infinite, so there is no longest word.
+	 */
+	public Optional<List<Symbol>> getLongestAcceptedWord() {
+		Set<State> useful = this.getUsefulStates();
+		if (!useful.contains(this.startState)) return Optional.empty();
+		Map<State, Integer> components = Graphs.findStronglyConnectedComponents(useful, state -> this.getUsefulSuccessors(state, useful));
+		int componentCount = 1 + components.values().stream().max(Integer::compare).orElse(0);
+		List<List<State>> members = new ArrayList<>(componentCount);
+		for (int i = 0; i < componentCount; i++) members.add(new ArrayList<>());
+		for (var entry : components.entrySet()) members.get(entry.getValue()).add(entry.getKey());
+
+		int[] lengths = new int[componentCount];
+		Arrays.fill(lengths, -1);
+		Transition[] previous = new Transition[componentCount];
+		lengths[components.get(this.startState)] = 0;
+		int best = -1;
+		// Components are numbered in reverse topological order.
+		for (int c = componentCount - 1; c >= 0; c--) {
+			if (lengths[c] == -1) continue;
+			for (State state : members.get(c)) {
+				if (this.finalStates.contains(state) && (best == -1 || lengths[c] > lengths[best])) best = c;
+				for (var entry : this.transitionIndex.get(state).entrySet()) {
+					int weight = entry.getKey().isEmpty() ? 0 : 1;
+					for (State next : entry.getValue()) {
+						Integer nextComponent = components.get(next);
+						if (nextComponent == null) continue;
+						if (nextComponent == c) {
+							if (weight > 0) throw new IllegalStateException("The language of this machine is infinite.");
+							continue;
+						}
+						if (lengths[c] + weight > lengths[nextComponent]) {
+							lengths[nextComponent] = lengths[c] + weight;
+							previous[nextComponent] = new Transition(state, entry.getKey(), next);
+						}
+					}
+				}
+			}
+		}
+		LinkedList<Symbol> word = new LinkedList<>();
+		for (Transition t = previous[best]; t != null; t = previous[components.get(t.getStartState())]) {
+			if (!t.isEpsilon()) word.addFirst(t.getAcceptingSymbol());
+		}
+		return Optional.of(word);
+	}
+
+	private List<State> getUsefulSuccessors(State state, Set<State> useful) {
+		List<State> successors = new ArrayList<>();
+		for (Set<State> nextStates : this.transitionIndex.get(state).values()) {
+			for (State next : nextStates) {
+				if (useful.contains(next)) successors.add(next);
+			}
+		}
+		return successors;
+	}
+
+	/**
+	 * Builds the word which is read by following the given chain of previous
+	 * transitions back from a state to the start state.
+	 */
+	private static List<Symbol> wordTo(State state, Map<State, Transition> previous) {
+		LinkedList<Symbol> word = new LinkedList<>();
+		for (Transition t = previous.get(state); t != null; t = previous.get(t.getStartState())) {
+			if (!t.isEpsilon()) word.addFirst(t.getAcceptingSymbol());
+		}
+		return word;
 	}
 
 	public boolean isDeterministic() {
 		for (State state : this.states) {
+			checkInterrupted();
 			for (Symbol symbol : this.alphabet) {
 				if (this.getEpsilonClosure(this.getNextStates(state, symbol)).size() > 1) {
 					return false;
@@ -102,6 +430,9 @@ public class FiniteStateMachine {
 	}
 
 	public FiniteStateMachine toDeterministic() {
+		Set<Symbol> alphabet = new HashSet<>(this.alphabet);
+		alphabet.remove(Symbol.EMPTY);
+		Set<State> states = new HashSet<>();
 		Set<State> finalStates = new HashSet<>();
 		Set<Transition> transitions = new HashSet<>();
 		Set<State> startClosure = this.getEpsilonClosure(this.startState);
@@ -110,9 +441,11 @@ public class FiniteStateMachine {
 		Set<Set<State>> visitedClosures = new HashSet<>();
 		stateQueue.add(startClosure);
 		while (!stateQueue.isEmpty()) {
+			checkInterrupted();
 			Set<State> currentClosure = stateQueue.pop();
 			visitedClosures.add(currentClosure);
 			State combinedState = State.of(currentClosure);
+			states.add(combinedState);
 			for (State state : currentClosure) {
 				if (this.finalStates.contains(state)) {
 					finalStates.add(combinedState);
@@ -131,7 +464,266 @@ public class FiniteStateMachine {
 				}
 			}
 		}
-		return FiniteStateMachine.fromTransitions(startState, transitions, finalStates);
+		return new FiniteStateMachine(alphabet, states, finalStates, startState, transitions);
+	}
+
+	/**
+	 * Parallel version of {@link #toDeterministic()}, which produces the same
+	 * machine. The subset construction expands all newly discovered subsets
+	 * one level at a time, computing the successors of each subset as a task
+	 * on the given pool. Subsets are interned in a concurrent map so that each
+	 * one is only named once, and the next level is assembled in the order of
+	 * the current one, so the result does not depend on the number of threads.
+	 * @param pool The pool to run the expansion of each level on.
+	 * @return The deterministic machine.
+	 */
+	public FiniteStateMachine toDeterministic(ForkJoinPool pool) {
+		List<Symbol> symbols = new ArrayList<>();
+		for (Symbol symbol : this.alphabet) {
+			if (!symbol.isEmpty()) symbols.add(symbol);
+		}
+		Collections.sort(symbols);
+		Set<State> states = new HashSet<>();
+		Set<State> finalStates = new HashSet<>();
+		Set<Transition> transitions = new HashSet<>();
+		ConcurrentMap<Set<State>, State> internedStates = new ConcurrentHashMap<>();
+		Set<State> startClosure = this.getEpsilonClosure(this.startState);
+		State startState = internedStates.computeIfAbsent(startClosure, State::of);
+		Set<Set<State>> visitedClosures = new HashSet<>();
+		visitedClosures.add(startClosure);
+		List<Set<State>> level = List.of(startClosure);
+		while (!level.isEmpty()) {
+			checkInterrupted();
+			SubsetExpansion expansion = new SubsetExpansion(this, symbols, level, internedStates);
+			pool.invoke(expansion);
+			List<Set<State>> nextLevel = new ArrayList<>();
+			for (int i = 0; i < level.size(); i++) {
+				Set<State> currentClosure = level.get(i);
+				State combinedState = internedStates.get(currentClosure);
+				states.add(combinedState);
+				for (State state : currentClosure) {
+					if (this.finalStates.contains(state)) {
+						finalStates.add(combinedState);
+						break;
+					}
+				}
+				List<Set<State>> successors = expansion.getSuccessors(i);
+				for (int j = 0; j < symbols.size(); j++) {
+					Set<State> successor = successors.get(j);
+					if (successor == null) continue;
+					transitions.add(new Transition(combinedState, symbols.get(j), internedStates.get(successor)));
+					if (visitedClosures.add(successor)) nextLevel.add(successor);
+				}
+			}
+			level = nextLevel;
+		}
+		return new FiniteStateMachine(new HashSet<>(symbols), states, finalStates, startState, transitions);
+	}
+
+	/**
+	 * Task which computes the epsilon closure of the successors of a range of
+	 * subsets for each symbol, splitting itself until the range is small. The
+	 * result for subset {@code i} is a list with the successors for each
+	 * symbol, or null where there are none, and is read with
+	 * {@link #getSuccessors(int)}.
+	 */
+	private static class SubsetExpansion extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private static final int THRESHOLD = 8;
+
+		private final FiniteStateMachine machine;
+		private final List<Symbol> symbols;
+		private final List<Set<State>> level;
+		private final ConcurrentMap<Set<State>, State> internedStates;
+		/**
+		 * Results per subset of the level. Each task writes only to its own
+		 * range of indexes, so a plain array can be shared between them.
+		 */
+		private final Object[] successors;
+		private final int from;
+		private final int to;
+
+		private SubsetExpansion(FiniteStateMachine machine, List<Symbol> symbols, List<Set<State>> level, ConcurrentMap<Set<State>, State> internedStates) {
+			this(machine, symbols, level, internedStates, new Object[level.size()], 0, level.size());
+		}
+
+		private SubsetExpansion(FiniteStateMachine machine, List<Symbol> symbols, List<Set<State>> level, ConcurrentMap<Set<State>, State> internedStates, Object[] successors, int from, int to) {
+			this.machine = machine;
+			this.symbols = symbols;
+			this.level = level;
+			this.internedStates = internedStates;
+			this.successors = successors;
+			this.from = from;
+			this.to = to;
+		}
+
+		@SuppressWarnings("unchecked")
+		private List<Set<State>> getSuccessors(int index) {
+			return (List<Set<State>>) this.successors[index];
+		}
+
+		@Override
+		protected void compute() {
+			if (this.to - this.from > THRESHOLD) {
+				int middle = (this.from + this.to) >>> 1;
+				invokeAll(
+						new SubsetExpansion(this.machine, this.symbols, this.level, this.internedStates, this.successors, this.from, middle),
+						new SubsetExpansion(this.machine, this.symbols, this.level, this.internedStates, this.successors, middle, this.to)
+				);
+				return;
+			}
+			for (int i = this.from; i < this.to; i++) {
+				Set<State> closure = this.level.get(i);
+				List<Set<State>> closureSuccessors = new ArrayList<>(this.symbols.size());
+				for (Symbol symbol : this.symbols) {
+					Set<State> next = this.machine.getEpsilonClosure(this.machine.getNextStates(closure, symbol));
+					if (next.isEmpty()) {
+						closureSuccessors.add(null);
+						continue;
+					}
+					this.internedStates.computeIfAbsent(next, State::of);
+					closureSuccessors.add(next);
+				}
+				this.successors[i] = closureSuccessors;
+			}
+		}
+	}
+
+	/**
+	 * Produces the deterministic machine with the fewest states which accepts
+	 * the same language as this one, by repeatedly splitting groups of states
+	 * until each group only contains states which cannot be distinguished by
+	 * any word. Missing transitions are treated as going to an implicit dead
+	 * state. Machines which are not deterministic, or which contain epsilon
+	 * transitions, are first converted using {@link #toDeterministic()}, and
+	 * states which are not useful are removed using {@link #toTrimmed()}.
+	 * @return The minimal deterministic machine. Each of its states is named
+	 * after the first state, in sorted order, of the group it represents.
+	 * @throws IllegalStateException If the language of this machine is empty.
+	 */
+	public FiniteStateMachine toMinimal() {
+		if (this.isEmpty()) {
+			throw new IllegalStateException("Cannot minimize a machine which does not accept any word.");
+		}
+		if (this.alphabet.contains(Symbol.EMPTY) || !this.isDeterministic()) {
+			return this.toDeterministic().toMinimal();
+		}
+		if (this.getUsefulStates().size() != this.getStateCount()) {
+			return this.toTrimmed().toMinimal();
+		}
+		List<State> stateList = new ArrayList<>(this.transitionIndex.keySet());
+		Map<State, Integer> stateIndexes = new HashMap<>();
+		for (int i = 0; i < stateList.size(); i++) stateIndexes.put(stateList.get(i), i);
+		List<Symbol> symbols = this.alphabet.stream().sorted().collect(Collectors.toList());
+		int[][] successors = new int[stateList.size()][symbols.size()];
+		for (int i = 0; i < stateList.size(); i++) {
+			var symbolMap = this.transitionIndex.get(stateList.get(i));
+			for (int j = 0; j < symbols.size(); j++) {
+				Set<State> next = symbolMap.get(symbols.get(j));
+				successors[i][j] = (next == null) ? -1 : stateIndexes.get(next.iterator().next());
+			}
+		}
+
+		// Start by splitting into final and non-final states, then refine until stable.
+		int[] groups = new int[stateList.size()];
+		int groupCount = 0;
+		Map<List<Integer>, Integer> signatures = new HashMap<>();
+		for (int i = 0; i < stateList.size(); i++) {
+			List<Integer> signature = List.of(this.finalStates.contains(stateList.get(i)) ? 1 : 0);
+			groups[i] = signatures.computeIfAbsent(signature, k -> signatures.size());
+		}
+		while (signatures.size() != groupCount) {
+			checkInterrupted();
+			groupCount = signatures.size();
+			signatures.clear();
+			int[] newGroups = new int[stateList.size()];
+			for (int i = 0; i < stateList.size(); i++) {
+				List<Integer> signature = new ArrayList<>(symbols.size() + 1);
+				signature.add(groups[i]);
+				for (int successor : successors[i]) {
+					signature.add(successor == -1 ? -1 : groups[successor]);
+				}
+				newGroups[i] = signatures.computeIfAbsent(signature, k -> signatures.size());
+			}
+			groups = newGroups;
+		}
+
+		State[] representatives = new State[groupCount];
+		for (int i = 0; i < stateList.size(); i++) {
+			if (representatives[groups[i]] == null) representatives[groups[i]] = stateList.get(i);
+		}
+		Set<State> states = new HashSet<>(Arrays.asList(representatives));
+		Set<State> finalStates = new HashSet<>();
+		Set<Transition> transitions = new HashSet<>();
+		for (int i = 0; i < stateList.size(); i++) {
+			State state = representatives[groups[i]];
+			if (this.finalStates.contains(stateList.get(i))) finalStates.add(state);
+			for (int j = 0; j < symbols.size(); j++) {
+				if (successors[i][j] == -1) continue;
+				transitions.add(new Transition(state, symbols.get(j), representatives[groups[successors[i][j]]]));
+			}
+		}
+		State startState = representatives[groups[stateIndexes.get(this.startState)]];
+		return new FiniteStateMachine(new HashSet<>(this.alphabet), states, finalStates, startState, transitions);
+	}
+
+	/**
+	 * Aborts a long-running transformation or search if the current thread
+	 * has been interrupted, for example because it exceeded a time limit. It
+	 * is checked once per iteration of the main loop of
+	 * {@link #toDeterministic()}, {@link #toMinimal()},
+	 * {@link #isDeterministic()}, {@link #fromGrammar(ContextFreeGrammar)}
+	 * and the reachability searches, which {@link #toTrimmed()} and
+	 * {@link #isEmpty()} are built on.
+	 * @throws CancellationException If the current thread is interrupted.
+	 */
+	private static void checkInterrupted() {
+		if (Thread.currentThread().isInterrupted()) {
+			throw new CancellationException("Transformation was interrupted.");
+		}
+	}
+
+	/**
+	 * Converts this machine to an equivalent right-linear grammar. Each state
+	 * becomes a non-terminal, which produces the symbol of each transition
+	 * followed by the non-terminal of the transition's end state. Final states
+	 * additionally produce the empty string. States whose name is not a valid
+	 * symbol identifier, or which clashes with a terminal, are renamed.
+	 * @return The grammar which generates the language accepted by this machine.
+	 */
+	public ContextFreeGrammar toGrammar() {
+		Set<Symbol> terminals = new HashSet<>(this.alphabet);
+		terminals.remove(Symbol.EMPTY);
+		Set<String> reservedNames = new HashSet<>();
+		for (Symbol terminal : terminals) reservedNames.add(terminal.getIdentifier());
+		for (State state : this.states) reservedNames.add(state.toString());
+		Iterator<Symbol> freshSymbols = Stream.iterate(0, i -> i + 1)
+				.map(i -> "Q" + i)
+				.filter(name -> !reservedNames.contains(name))
+				.map(Symbol::of)
+				.iterator();
+
+		Map<State, Symbol> nonTerminalMap = new HashMap<>();
+		for (State state : this.transitionIndex.keySet()) {
+			String name = state.toString();
+			boolean clashes = terminals.contains(Symbol.of(name));
+			nonTerminalMap.put(state, name.matches("\\w+") && !clashes ? Symbol.of(name) : freshSymbols.next());
+		}
+
+		Set<ProductionRule> rules = new HashSet<>();
+		for (Transition t : this.transitions) {
+			Symbol begin = nonTerminalMap.get(t.getStartState());
+			Symbol end = nonTerminalMap.get(t.getEndState());
+			if (t.isEpsilon()) {
+				rules.add(ProductionRule.of(begin, end));
+			} else {
+				rules.add(ProductionRule.of(begin, t.getAcceptingSymbol(), end));
+			}
+		}
+		for (State finalState : this.finalStates) {
+			rules.add(ProductionRule.of(nonTerminalMap.get(finalState)));
+		}
+		return new ContextFreeGrammar(new HashSet<>(nonTerminalMap.values()), terminals, rules, nonTerminalMap.get(this.startState));
 	}
 
 	@Override
@@ -154,28 +746,148 @@ public class FiniteStateMachine {
 	@Override
 	public String toString() {
 		StringBuilder sb = new StringBuilder();
-		List<State> sortedStates = this.states.stream().sorted().collect(Collectors.toList());
-		for (State state : sortedStates) {
-			if (this.startState.equals(state)) {
-				sb.append("-> ");
-			} else if (this.finalStates.contains(state)) {
-				sb.append(" * ");
+		try {
+			this.writeTo(sb);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Writes this machine in the format which is read by
+	 * {@link #fromString(String)}, with one line per state. The output is
+	 * produced in a single pass over the sorted transition index, so even very
+	 * large machines can be written without building the whole string first.
+	 * States which are both the start state and a final state are marked with
+	 * {@code ->*}, and quotes and backslashes in symbols are escaped. If some
+	 * symbols of the alphabet are not used by any transition, the whole
+	 * alphabet is first written on a line of the form {@code Σ = "a", "b"}.
+	 * @param out The destination to write to.
+	 * @throws IOException If writing fails.
+	 */
+	public void writeTo(Appendable out) throws IOException {
+		if (!this.allSymbolsUsed) {
+			out.append(ALPHABET_MARKER).append(" =");
+			boolean first = true;
+			for (Symbol symbol : new TreeSet<>(this.alphabet)) {
+				out.append(first ? " \"" : ", \"");
+				first = false;
+				appendEscaped(out, symbol.getIdentifier());
+				out.append('"');
+			}
+			out.append('\n');
+		}
+		for (var stateEntry : this.transitionIndex.entrySet()) {
+			State state = stateEntry.getKey();
+			boolean isStart = this.startState.equals(state);
+			boolean isFinal = this.finalStates.contains(state);
+			if (isStart && isFinal) {
+				out.append("->* ");
+			} else if (isStart) {
+				out.append("-> ");
+			} else if (isFinal) {
+				out.append(" * ");
 			} else {
-				sb.append("   ");
+				out.append("   ");
 			}
-			sb.append(state);
-			List<Transition> sortedTransitions = this.getTransitionsStartingAt(state).stream().sorted().collect(Collectors.toList());
-			if (!sortedTransitions.isEmpty()) {
-				sb.append(" : ");
-				for (int i = 0; i < sortedTransitions.size(); i++) {
-					Transition t = sortedTransitions.get(i);
-					sb.append('"').append(t.getAcceptingSymbol()).append('"').append(" -> ").append(t.getEndState());
-					if (i < sortedTransitions.size() - 1) sb.append(", ");
+			out.append(state.toString());
+			boolean first = true;
+			for (var symbolEntry : stateEntry.getValue().entrySet()) {
+				for (State endState : symbolEntry.getValue()) {
+					out.append(first ? " : " : ", ");
+					first = false;
+					out.append('"');
+					appendEscaped(out, symbolEntry.getKey().getIdentifier());
+					out.append('"').append(" -> ").append(endState.toString());
 				}
 			}
-			sb.append("\n");
+			out.append('\n');
 		}
-		return sb.toString();
+	}
+
+	/**
+	 * Writes this machine to a file, using the same format as
+	 * {@link #writeTo(Appendable)}.
+	 * @param file The file to write to. It is replaced if it already exists.
+	 * @throws IOException If writing fails.
+	 */
+	public void writeTo(Path file) throws IOException {
+		try (Writer writer = Files.newBufferedWriter(file)) {
+			this.writeTo(writer);
+		}
+	}
+
+	/**
+	 * Writes this machine as a Graphviz DOT digraph, in a single pass over the
+	 * sorted transition index. Final states are drawn as double circles, the
+	 * start state is pointed to by an arrow from an invisible node, and
+	 * epsilon transitions are labelled with "ε".
+	 * @param out The destination to write to.
+	 * @throws IOException If writing fails.
+	 */
+	public void writeDotTo(Appendable out) throws IOException {
+		out.append("digraph {\n");
+		out.append("\trankdir=LR;\n");
+		out.append("\tnode [shape=circle];\n");
+		// The start marker is an extra node, so make sure no state has the same ID.
+		String startMarker = "__start";
+		while (this.states.contains(State.of(startMarker))) startMarker = "_" + startMarker;
+		out.append('\t');
+		appendDotId(out, startMarker);
+		out.append(" [shape=point];\n");
+		out.append('\t');
+		appendDotId(out, startMarker);
+		out.append(" -> ");
+		appendDotId(out, this.startState.toString());
+		out.append(";\n");
+		for (var stateEntry : this.transitionIndex.entrySet()) {
+			State state = stateEntry.getKey();
+			if (this.finalStates.contains(state)) {
+				out.append('\t');
+				appendDotId(out, state.toString());
+				out.append(" [shape=doublecircle];\n");
+			}
+			for (var symbolEntry : stateEntry.getValue().entrySet()) {
+				Symbol symbol = symbolEntry.getKey();
+				for (State endState : symbolEntry.getValue()) {
+					out.append('\t');
+					appendDotId(out, state.toString());
+					out.append(" -> ");
+					appendDotId(out, endState.toString());
+					out.append(" [label=");
+					appendDotId(out, symbol.isEmpty() ? "ε" : symbol.getIdentifier());
+					out.append("];\n");
+				}
+			}
+		}
+		out.append("}\n");
+	}
+
+	/**
+	 * Writes this machine to a file as a Graphviz DOT digraph, using the same
+	 * format as {@link #writeDotTo(Appendable)}.
+	 * @param file The file to write to. It is replaced if it already exists.
+	 * @throws IOException If writing fails.
+	 */
+	public void writeDotTo(Path file) throws IOException {
+		try (Writer writer = Files.newBufferedWriter(file)) {
+			this.writeDotTo(writer);
+		}
+	}
+
+	private static void appendEscaped(Appendable out, String s) throws IOException {
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '"' || c == '\\') out.append('\\');
+			out.append(c);
+		}
+	}
+
+	private static void appendDotId(Appendable out, String id) throws IOException {
+		out.append('"');
+		appendEscaped(out, id);
+		out.append('"');
 	}
 
 	public static FiniteStateMachine fromTransitions(State startState, Set<Transition> transitions, Set<State> finalStates) {
@@ -189,6 +901,97 @@ public class FiniteStateMachine {
 		return new FiniteStateMachine(alphabet, states,finalStates, startState, transitions);
 	}
 
+	/**
+	 * Constructs a (usually non-deterministic) machine which accepts the same
+	 * language as the given regular grammar generates. For right-linear
+	 * grammars, each non-terminal becomes a state, and an extra final state is
+	 * added for rules which produce only terminals. For left-linear grammars,
+	 * an extra start state is added instead, and the grammar's start symbol
+	 * becomes the final state. Rules which produce more than one terminal are
+	 * split into a chain of intermediate states. States which are not useful
+	 * are removed, unless the language is empty.
+	 * @param grammar The grammar to convert.
+	 * @return The finite state machine that was created.
+	 * @throws IllegalStateException If the grammar is not regular. The
+	 * message contains the rules which prevent the conversion.
+	 */
+	public static FiniteStateMachine fromGrammar(ContextFreeGrammar grammar) {
+		boolean rightLinear = grammar.isRightLinear();
+		if (!rightLinear && !grammar.isLeftLinear()) {
+			throw new IllegalStateException("Grammar is not regular, because of the following rules: " + grammar.findNonRegularRules());
+		}
+		Set<String> reservedNames = new HashSet<>();
+		Set<State> states = new HashSet<>();
+		for (Symbol nonTerminal : grammar.getNonTerminalSymbols()) {
+			reservedNames.add(nonTerminal.getIdentifier());
+			states.add(State.of(nonTerminal.getIdentifier()));
+		}
+		Iterator<State> freshStates = Stream.iterate(0, i -> i + 1)
+				.map(i -> "q" + i)
+				.filter(name -> !reservedNames.contains(name))
+				.map(State::of)
+				.iterator();
+		State extraState = freshStates.next();
+		states.add(extraState);
+
+		Set<Transition> transitions = new HashSet<>();
+		for (ProductionRule rule : grammar.getProductionRules()) {
+			checkInterrupted();
+			List<Symbol> produced = rule.getProducedSymbols();
+			State ruleState = State.of(rule.getBeginSymbol().getIdentifier());
+			if (rightLinear) {
+				// A -> w, B is read as: from A, accept w and go to B.
+				if (!produced.isEmpty() && grammar.isSymbolNonTerminal(produced.get(produced.size() - 1))) {
+					State next = State.of(produced.get(produced.size() - 1).getIdentifier());
+					addTransitionChain(ruleState, produced.subList(0, produced.size() - 1), next, freshStates, states, transitions);
+				} else {
+					addTransitionChain(ruleState, produced, extraState, freshStates, states, transitions);
+				}
+			} else {
+				// A -> B, w is read as: from B, accept w and go to A.
+				if (!produced.isEmpty() && grammar.isSymbolNonTerminal(produced.get(0))) {
+					State previous = State.of(produced.get(0).getIdentifier());
+					addTransitionChain(previous, produced.subList(1, produced.size()), ruleState, freshStates, states, transitions);
+				} else {
+					addTransitionChain(extraState, produced, ruleState, freshStates, states, transitions);
+				}
+			}
+		}
+
+		Set<Symbol> alphabet = new HashSet<>(grammar.getTerminalSymbols());
+		for (Transition t : transitions) {
+			if (t.isEpsilon()) alphabet.add(Symbol.EMPTY);
+		}
+		State grammarStartState = State.of(grammar.getStartSymbol().getIdentifier());
+		FiniteStateMachine machine;
+		if (rightLinear) {
+			machine = new FiniteStateMachine(alphabet, states, Set.of(extraState), grammarStartState, transitions);
+		} else {
+			machine = new FiniteStateMachine(alphabet, states, Set.of(grammarStartState), extraState, transitions);
+		}
+		// Non-terminals which are unreachable or not generating become useless states.
+		return machine.isEmpty() ? machine : machine.toTrimmed();
+	}
+
+	/**
+	 * Adds a chain of transitions which accepts the given symbols one after
+	 * the other, using newly created intermediate states. If there are no
+	 * symbols, a single epsilon transition is added.
+	 */
+	private static void addTransitionChain(State from, List<Symbol> symbols, State to, Iterator<State> freshStates, Set<State> states, Set<Transition> transitions) {
+		if (symbols.isEmpty()) {
+			transitions.add(new Transition(from, Symbol.EMPTY, to));
+			return;
+		}
+		State current = from;
+		for (int i = 0; i < symbols.size(); i++) {
+			State next = (i == symbols.size() - 1) ? to : freshStates.next();
+			states.add(next);
+			transitions.add(new Transition(current, symbols.get(i), next));
+			current = next;
+		}
+	}
+
 	/**
 	 * Constructs an FSM from a series of strings depicting states and their
 	 * possible transitions. The following format is used:
@@ -198,50 +1001,132 @@ public class FiniteStateMachine {
 	 *      * q2 : "c" -> q3
 	 *      * q3
 	 * </code></pre>
+	 * A state which is both the start state and a final state is marked with
+	 * {@code ->*}. State names may be wrapped in braces, such as
+	 * {@code {q0, q1}}, in which case they may contain spaces and commas.
+	 * Quotes and backslashes in symbols must be escaped with a backslash.
+	 * Symbols which are not used by any transition can be added to the
+	 * alphabet with a line of the form {@code Σ = "a", "b"}.
 	 * @param fsmString The string containing the FSM specification.
 	 * @return The finite state machine that was created.
 	 */
 	public static FiniteStateMachine fromString(String fsmString) {
-		String[] stateStrings = fsmString.split("\\n+");
 		State startState = null;
+		Set<State> states = new HashSet<>();
 		Set<State> finalStates = new HashSet<>();
 		Set<Transition> transitions = new HashSet<>();
-		for (String stateString : stateStrings) {
+		Set<Symbol> alphabet = new HashSet<>();
+		for (String stateString : fsmString.split("\\n+")) {
 			if (stateString.isBlank()) continue;
-			String[] parts = stateString.split("\\s*:\\s*");
-			String stateDefinition = parts[0].trim();
-			String[] definitionParts = stateDefinition.split("\\s+");
-			String modifier = null;
-			String stateName;
-			if (definitionParts.length > 1) {
-				modifier = definitionParts[0].trim();
-				stateName = definitionParts[1].trim();
-			} else {
-				stateName = definitionParts[0].trim();
-			}
-			State state = new State(stateName);
-			if (modifier != null) {
-				if (modifier.trim().equals("->")) {
-					startState = state;
-				} else if (modifier.trim().equals("*")) {
-					finalStates.add(state);
+			LineReader reader = new LineReader(stateString);
+			if (stateString.matches("\\s*" + ALPHABET_MARKER + "\\s*=.*")) {
+				reader.expect(ALPHABET_MARKER);
+				reader.expect("=");
+				while (!reader.atEnd()) {
+					alphabet.add(new Symbol(reader.readQuoted()));
+					if (!reader.atEnd()) reader.expect(",");
+				}
+				continue;
+			}
+			boolean isStart = false;
+			boolean isFinal = false;
+			while (true) {
+				if (reader.skip("->")) {
+					isStart = true;
+				} else if (reader.skip("*")) {
+					isFinal = true;
 				} else {
-					throw new IllegalArgumentException("Invalid state modifier: " + modifier);
-				}
-			}
-			if (parts.length == 1) continue;
-			String[] transitionDefinitions = parts[1].split("\\s*,\\s*");
-			for (String transitionDefinition : transitionDefinitions) {
-				String[] transitionParts = transitionDefinition.split("\\s*->\\s*");
-				if (transitionParts.length != 2) throw new IllegalArgumentException("Invalid transition format: " + transitionDefinition);
-				Pattern p = Pattern.compile("\"([^\"]*)\"");
-				Matcher m = p.matcher(transitionParts[0]);
-				if (!m.find()) throw new IllegalArgumentException("Invalid transition format: " + transitionDefinition);
-				Symbol acceptingSymbol = new Symbol(m.group(1));
-				State endState = new State(transitionParts[1].trim());
+					break;
+				}
+			}
+			State state = new State(reader.readStateName());
+			states.add(state);
+			if (isStart) startState = state;
+			if (isFinal) finalStates.add(state);
+			if (reader.atEnd()) continue;
+			reader.expect(":");
+			while (!reader.atEnd()) {
+				Symbol acceptingSymbol = new Symbol(reader.readQuoted());
+				reader.expect("->");
+				State endState = new State(reader.readStateName());
+				states.add(endState);
+				alphabet.add(acceptingSymbol);
 				transitions.add(new Transition(state, acceptingSymbol, endState));
+				if (!reader.atEnd()) reader.expect(",");
 			}
 		}
-		return fromTransitions(startState, transitions, finalStates);
+		if (startState == null) throw new IllegalArgumentException("No start state was marked with \"->\".");
+		return new FiniteStateMachine(alphabet, states, finalStates, startState, transitions);
+	}
+
+	/**
+	 * Simple reader for a single line of the format read by
+	 * {@link #fromString(String)}, which skips whitespace between tokens.
+	 */
+	private static class LineReader {
+		private final String line;
+		private int pos = 0;
+
+		private LineReader(String line) {
+			this.line = line;
+		}
+
+		private void skipWhitespace() {
+			while (this.pos < this.line.length() && Character.isWhitespace(this.line.charAt(this.pos))) this.pos++;
+		}
+
+		private boolean atEnd() {
+			this.skipWhitespace();
+			return this.pos == this.line.length();
+		}
+
+		private boolean skip(String token) {
+			this.skipWhitespace();
+			if (this.line.startsWith(token, this.pos)) {
+				this.pos += token.length();
+				return true;
+			}
+			return false;
+		}
+
+		private void expect(String token) {
+			if (!this.skip(token)) throw this.error("Expected \"" + token + "\"");
+		}
+
+		private String readStateName() {
+			this.skipWhitespace();
+			int start = this.pos;
+			int depth = 0;
+			while (this.pos < this.line.length()) {
+				char c = this.line.charAt(this.pos);
+				if (c == '{') {
+					depth++;
+				} else if (c == '}') {
+					depth--;
+				} else if (depth == 0 && (Character.isWhitespace(c) || c == ':' || c == ',')) {
+					break;
+				}
+				this.pos++;
+			}
+			if (depth != 0) throw this.error("Unbalanced braces in state name");
+			if (start == this.pos) throw this.error("Expected a state name");
+			return this.line.substring(start, this.pos);
+		}
+
+		private String readQuoted() {
+			this.expect("\"");
+			StringBuilder sb = new StringBuilder();
+			while (this.pos < this.line.length()) {
+				char c = this.line.charAt(this.pos++);
+				if (c == '"') return sb.toString();
+				if (c == '\\' && this.pos < this.line.length()) c = this.line.charAt(this.pos++);
+				sb.append(c);
+			}
+			throw this.error("Unterminated symbol");
+		}
+
+		private IllegalArgumentException error(String message) {
+			return new IllegalArgumentException("Invalid transition format: " + message + " at position " + this.pos + " in \"" + this.line + "\"");
+		}
 	}
 }
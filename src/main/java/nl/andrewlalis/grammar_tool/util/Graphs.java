@@ -0,0 +1,73 @@
+package nl.andrewlalis.grammar_tool.util;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Graph algorithms which are shared by machines and grammars.
+ */
+public final class Graphs {
+	private Graphs() {}
+
+	/**
+	 * Finds the strongly connected components of a directed graph, using an
+	 * iterative version of Tarjan's algorithm, so that very large graphs don't
+	 * overflow the stack. This runs in time linear to the number of nodes and
+	 * edges.
+	 * @param nodes The nodes of the graph.
+	 * @param successors A function which gives the successors of a node. Only
+	 *                   successors which are also in {@code nodes} may be
+	 *                   returned.
+	 * @param <T> The type of node.
+	 * @return A map from each node to the index of its component. Components
+	 * are numbered in reverse topological order, that is, if there is an edge
+	 * from one component to another, the first has the higher index.
+	 */
+	public static <T> Map<T, Integer> findStronglyConnectedComponents(Collection<T> nodes, Function<T, ? extends Iterable<T>> successors) {
+		Map<T, Integer> indexes = new HashMap<>();
+		Map<T, Integer> lowLinks = new HashMap<>();
+		Map<T, Integer> components = new HashMap<>();
+		Deque<T> componentStack = new ArrayDeque<>();
+		Deque<Map.Entry<T, Iterator<T>>> callStack = new ArrayDeque<>();
+		int nextIndex = 0;
+		int nextComponent = 0;
+		for (T root : nodes) {
+			if (indexes.containsKey(root)) continue;
+			indexes.put(root, nextIndex);
+			lowLinks.put(root, nextIndex++);
+			componentStack.push(root);
+			callStack.push(Map.entry(root, successors.apply(root).iterator()));
+			while (!callStack.isEmpty()) {
+				T node = callStack.peek().getKey();
+				Iterator<T> iterator = callStack.peek().getValue();
+				if (iterator.hasNext()) {
+					T next = iterator.next();
+					if (!indexes.containsKey(next)) {
+						indexes.put(next, nextIndex);
+						lowLinks.put(next, nextIndex++);
+						componentStack.push(next);
+						callStack.push(Map.entry(next, successors.apply(next).iterator()));
+					} else if (!components.containsKey(next)) {
+						// The node is still on the component stack.
+						lowLinks.put(node, Math.min(lowLinks.get(node), indexes.get(next)));
+					}
+					continue;
+				}
+				callStack.pop();
+				if (lowLinks.get(node).equals(indexes.get(node))) {
+					T member;
+					do {
+						member = componentStack.pop();
+						components.put(member, nextComponent);
+					} while (!member.equals(node));
+					nextComponent++;
+				}
+				if (!callStack.isEmpty()) {
+					T parent = callStack.peek().getKey();
+					lowLinks.put(parent, Math.min(lowLinks.get(parent), lowLinks.get(node)));
+				}
+			}
+		}
+		return components;
+	}
+}
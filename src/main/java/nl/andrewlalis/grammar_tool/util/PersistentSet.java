@@ -0,0 +1,354 @@
+package nl.andrewlalis.grammar_tool.util;
+
+import java.util.*;
+
+/**
+ * An immutable set, which is stored as a hash array mapped trie. Adding or
+ * removing an element produces a new set which shares all but the path to the
+ * changed element with the original, so each version costs only O(log n) new
+ * memory. The size and hash code are maintained as elements are added and
+ * removed, so both are available in constant time.
+ * <p>
+ *     The mutating methods of {@link Set} are not supported. Use
+ *     {@link #plus(Object)} and {@link #minus(Object)} instead.
+ * </p>
+ * @param <T> The type of element.
+ */
+public final class PersistentSet<T> extends AbstractSet<T> {
+	private static final int BITS = 5;
+	private static final int MASK = (1 << BITS) - 1;
+	private static final PersistentSet<?> EMPTY = new PersistentSet<>(new BitmapNode(0, new Object[0]), 0, 0);
+
+	private final BitmapNode root;
+	private final int size;
+	private final int hash;
+
+	private PersistentSet(BitmapNode root, int size, int hash) {
+		this.root = root;
+		this.size = size;
+		this.hash = hash;
+	}
+
+	@SuppressWarnings("unchecked")
+	public static <T> PersistentSet<T> empty() {
+		return (PersistentSet<T>) EMPTY;
+	}
+
+	/**
+	 * Gets a persistent set containing the given elements. If the collection
+	 * is already a persistent set, it is returned as-is.
+	 * @param elements The elements to include.
+	 * @param <T> The type of element.
+	 * @return A persistent set with the given elements.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> PersistentSet<T> copyOf(Collection<? extends T> elements) {
+		if (elements instanceof PersistentSet) return (PersistentSet<T>) elements;
+		return PersistentSet.<T>empty().plusAll(elements);
+	}
+
+	/**
+	 * @param element The element to add.
+	 * @return A set which also contains the given element, or this set if it
+	 * already contains it.
+	 */
+	public PersistentSet<T> plus(T element) {
+		int elementHash = element.hashCode();
+		Node newRoot = this.root.plus(element, spread(elementHash), 0);
+		if (newRoot == this.root) return this;
+		return new PersistentSet<>((BitmapNode) newRoot, this.size + 1, this.hash + elementHash);
+	}
+
+	/**
+	 * @param elements The elements to add.
+	 * @return A set which also contains all the given elements.
+	 */
+	public PersistentSet<T> plusAll(Collection<? extends T> elements) {
+		PersistentSet<T> result = this;
+		for (T element : elements) {
+			result = result.plus(element);
+		}
+		return result;
+	}
+
+	/**
+	 * @param element The element to remove.
+	 * @return A set which does not contain the given element, or this set if
+	 * it didn't contain it.
+	 */
+	public PersistentSet<T> minus(Object element) {
+		int elementHash = element.hashCode();
+		Node newRoot = this.root.minus(element, spread(elementHash), 0);
+		if (newRoot == this.root) return this;
+		if (newRoot == null) return empty();
+		return new PersistentSet<>((BitmapNode) newRoot, this.size - 1, this.hash - elementHash);
+	}
+
+	/**
+	 * @param elements The elements to remove.
+	 * @return A set which does not contain any of the given elements.
+	 */
+	public PersistentSet<T> minusAll(Collection<?> elements) {
+		PersistentSet<T> result = this;
+		for (Object element : elements) {
+			result = result.minus(element);
+		}
+		return result;
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		if (o == null) return false;
+		return this.root.contains(o, spread(o.hashCode()), 0);
+	}
+
+	@Override
+	public int size() {
+		return this.size;
+	}
+
+	@Override
+	public int hashCode() {
+		return this.hash;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (o instanceof PersistentSet) {
+			PersistentSet<?> other = (PersistentSet<?>) o;
+			if (this.root == other.root) return true;
+			if (this.hash != other.hash || this.size != other.size) return false;
+		}
+		return super.equals(o);
+	}
+
+	@Override
+	public Iterator<T> iterator() {
+		return new TrieIterator<>(this.root);
+	}
+
+	private static int spread(int h) {
+		return h ^ (h >>> 16);
+	}
+
+	private static abstract class Node {
+		abstract boolean contains(Object element, int hash, int shift);
+
+		/**
+		 * @return A node which also contains the element, or this node if it
+		 * already does.
+		 */
+		abstract Node plus(Object element, int hash, int shift);
+
+		/**
+		 * @return A node without the element, this node if it didn't contain
+		 * it, or null if the node would be empty.
+		 */
+		abstract Node minus(Object element, int hash, int shift);
+
+		/**
+		 * @return The array of entries, which are either elements or nodes.
+		 */
+		abstract Object[] entries();
+	}
+
+	/**
+	 * Node in which each of the 32 possible values of the hash bits at this
+	 * level has a slot, which is either empty, an element, or a child node.
+	 * Only occupied slots are stored, in the order of their bit in the bitmap.
+	 */
+	private static final class BitmapNode extends Node {
+		private final int bitmap;
+		private final Object[] array;
+
+		private BitmapNode(int bitmap, Object[] array) {
+			this.bitmap = bitmap;
+			this.array = array;
+		}
+
+		private int indexOf(int bit) {
+			return Integer.bitCount(this.bitmap & (bit - 1));
+		}
+
+		@Override
+		boolean contains(Object element, int hash, int shift) {
+			int bit = 1 << ((hash >>> shift) & MASK);
+			if ((this.bitmap & bit) == 0) return false;
+			Object entry = this.array[this.indexOf(bit)];
+			if (entry instanceof Node) return ((Node) entry).contains(element, hash, shift + BITS);
+			return entry.equals(element);
+		}
+
+		@Override
+		Node plus(Object element, int hash, int shift) {
+			int bit = 1 << ((hash >>> shift) & MASK);
+			int index = this.indexOf(bit);
+			if ((this.bitmap & bit) == 0) {
+				Object[] newArray = new Object[this.array.length + 1];
+				System.arraycopy(this.array, 0, newArray, 0, index);
+				newArray[index] = element;
+				System.arraycopy(this.array, index, newArray, index + 1, this.array.length - index);
+				return new BitmapNode(this.bitmap | bit, newArray);
+			}
+			Object entry = this.array[index];
+			Object newEntry;
+			if (entry instanceof Node) {
+				newEntry = ((Node) entry).plus(element, hash, shift + BITS);
+				if (newEntry == entry) return this;
+			} else {
+				if (entry.equals(element)) return this;
+				newEntry = merge(entry, spread(entry.hashCode()), element, hash, shift + BITS);
+			}
+			Object[] newArray = this.array.clone();
+			newArray[index] = newEntry;
+			return new BitmapNode(this.bitmap, newArray);
+		}
+
+		@Override
+		Node minus(Object element, int hash, int shift) {
+			int bit = 1 << ((hash >>> shift) & MASK);
+			if ((this.bitmap & bit) == 0) return this;
+			int index = this.indexOf(bit);
+			Object entry = this.array[index];
+			if (entry instanceof Node) {
+				Node newEntry = ((Node) entry).minus(element, hash, shift + BITS);
+				if (newEntry == entry) return this;
+				if (newEntry != null) {
+					Object[] newArray = this.array.clone();
+					newArray[index] = newEntry;
+					return new BitmapNode(this.bitmap, newArray);
+				}
+			} else if (!entry.equals(element)) {
+				return this;
+			}
+			if (this.array.length == 1) return null;
+			Object[] newArray = new Object[this.array.length - 1];
+			System.arraycopy(this.array, 0, newArray, 0, index);
+			System.arraycopy(this.array, index + 1, newArray, index, newArray.length - index);
+			return new BitmapNode(this.bitmap & ~bit, newArray);
+		}
+
+		@Override
+		Object[] entries() {
+			return this.array;
+		}
+	}
+
+	/**
+	 * Node which holds elements whose (spread) hashes are all equal, which can
+	 * therefore not be told apart by any level of the trie.
+	 */
+	private static final class CollisionNode extends Node {
+		private final int hash;
+		private final Object[] array;
+
+		private CollisionNode(int hash, Object[] array) {
+			this.hash = hash;
+			this.array = array;
+		}
+
+		@Override
+		boolean contains(Object element, int hash, int shift) {
+			if (hash != this.hash) return false;
+			for (Object entry : this.array) {
+				if (entry.equals(element)) return true;
+			}
+			return false;
+		}
+
+		@Override
+		Node plus(Object element, int hash, int shift) {
+			if (hash != this.hash) return merge(this, this.hash, element, hash, shift);
+			if (this.contains(element, hash, shift)) return this;
+			Object[] newArray = Arrays.copyOf(this.array, this.array.length + 1);
+			newArray[this.array.length] = element;
+			return new CollisionNode(this.hash, newArray);
+		}
+
+		@Override
+		Node minus(Object element, int hash, int shift) {
+			if (hash != this.hash) return this;
+			for (int i = 0; i < this.array.length; i++) {
+				if (this.array[i].equals(element)) {
+					if (this.array.length == 1) return null;
+					Object[] newArray = new Object[this.array.length - 1];
+					System.arraycopy(this.array, 0, newArray, 0, i);
+					System.arraycopy(this.array, i + 1, newArray, i, newArray.length - i);
+					return new CollisionNode(this.hash, newArray);
+				}
+			}
+			return this;
+		}
+
+		@Override
+		Object[] entries() {
+			return this.array;
+		}
+	}
+
+	/**
+	 * Creates a node containing two entries, which may be elements or
+	 * collision nodes, that fell into the same slot at the previous level.
+	 */
+	private static Node merge(Object a, int hashA, Object b, int hashB, int shift) {
+		if (hashA == hashB) return new CollisionNode(hashA, new Object[]{a, b});
+		int indexA = (hashA >>> shift) & MASK;
+		int indexB = (hashB >>> shift) & MASK;
+		if (indexA == indexB) {
+			return new BitmapNode(1 << indexA, new Object[]{merge(a, hashA, b, hashB, shift + BITS)});
+		}
+		Object[] array = indexA < indexB ? new Object[]{a, b} : new Object[]{b, a};
+		return new BitmapNode((1 << indexA) | (1 << indexB), array);
+	}
+
+	/**
+	 * Depth-first iterator over all elements in the trie.
+	 */
+	private static final class TrieIterator<T> implements Iterator<T> {
+		private final Deque<Object[]> arrays = new ArrayDeque<>();
+		private final Deque<Integer> indexes = new ArrayDeque<>();
+		private T next;
+
+		private TrieIterator(Node root) {
+			this.arrays.push(root.entries());
+			this.indexes.push(0);
+			this.advance();
+		}
+
+		@SuppressWarnings("unchecked")
+		private void advance() {
+			this.next = null;
+			while (!this.arrays.isEmpty()) {
+				Object[] array = this.arrays.peek();
+				int index = this.indexes.pop();
+				if (index == array.length) {
+					this.arrays.pop();
+					continue;
+				}
+				this.indexes.push(index + 1);
+				Object entry = array[index];
+				if (entry instanceof Node) {
+					this.arrays.push(((Node) entry).entries());
+					this.indexes.push(0);
+				} else {
+					this.next = (T) entry;
+					return;
+				}
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return this.next != null;
+		}
+
+		@Override
+		public T next() {
+			if (this.next == null) throw new NoSuchElementException();
+			T result = this.next;
+			this.advance();
+			return result;
+		}
+	}
+}
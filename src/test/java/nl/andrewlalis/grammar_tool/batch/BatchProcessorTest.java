@@ -0,0 +1,84 @@
+package nl.andrewlalis.grammar_tool.batch;
+
+import nl.andrewlalis.grammar_tool.grammar.Symbol;
+import nl.andrewlalis.grammar_tool.machine.FiniteStateMachine;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BatchProcessorTest {
+	@Test
+	public void testProcess(@TempDir Path tempDir) throws IOException {
+		Path input = Files.createDirectory(tempDir.resolve("input"));
+		Path output = tempDir.resolve("output");
+		Files.writeString(input.resolve("a.fsm"), """
+				-> q0 : "a" -> q1, "a" -> q2
+				 * q1 : "b" -> q1
+				 * q2 : "b" -> q2
+				""");
+		Files.writeString(input.resolve("b.cfg"), """
+				S -> a,S | b,A
+				A -> b,A | ε
+				""");
+		Files.writeString(input.resolve("c.cfg"), """
+				S -> a,S,b | ε
+				""");
+		Files.writeString(input.resolve("d.fsm"), "-> q0 : a -> q1");
+		Files.writeString(input.resolve("ignored.txt"), "Not a specification.");
+
+		BatchSummary summary = new BatchProcessor(2, Duration.ofSeconds(10)).process(input, output);
+		assertEquals(4, summary.getResults().size());
+		assertEquals(3, summary.getCount(FileResult.Status.SUCCEEDED));
+		assertEquals(1, summary.getCount(FileResult.Status.FAILED));
+		assertEquals(FileResult.Status.FAILED, summary.getResults().get(3).getStatus());
+
+		assertEquals("3 states -> 2 states", summary.getResults().get(0).getMessage());
+		FiniteStateMachine a = FiniteStateMachine.fromString(Files.readString(output.resolve("a.fsm.fsm")));
+		assertTrue(a.isDeterministic());
+		assertEquals(2, a.getStateCount());
+		assertTrue(Files.exists(output.resolve("b.cfg.fsm")));
+		assertTrue(Files.exists(output.resolve("c.cfg.cfg")));
+	}
+
+	@Test
+	public void testTimeout(@TempDir Path tempDir) throws IOException {
+		Path input = Files.createDirectory(tempDir.resolve("input"));
+		// Accepts words whose 18th symbol from the end is an "a", which has 2^18 deterministic states.
+		StringBuilder sb = new StringBuilder("-> q0 : \"a\" -> q0, \"b\" -> q0, \"a\" -> q1\n");
+		for (int i = 1; i < 18; i++) {
+			sb.append("q").append(i).append(" : \"a\" -> q").append(i + 1).append(", \"b\" -> q").append(i + 1).append("\n");
+		}
+		sb.append("* q18\n");
+		Files.writeString(input.resolve("blowup.fsm"), sb.toString());
+
+		BatchSummary summary = new BatchProcessor(1, Duration.ofMillis(50)).process(input, tempDir.resolve("output"));
+		assertEquals(1, summary.getCount(FileResult.Status.TIMED_OUT));
+	}
+
+	@Test
+	public void testSameBaseName(@TempDir Path tempDir) throws IOException {
+		Path input = Files.createDirectory(tempDir.resolve("input"));
+		Path output = tempDir.resolve("output");
+		Files.writeString(input.resolve("x.fsm"), """
+				-> q0 : "a" -> q1
+				 * q1
+				""");
+		Files.writeString(input.resolve("x.cfg"), """
+				S -> b,S | ε
+				""");
+
+		BatchSummary summary = new BatchProcessor(2, Duration.ofSeconds(10)).process(input, output);
+		assertEquals(2, summary.getCount(FileResult.Status.SUCCEEDED));
+		FiniteStateMachine fromMachine = FiniteStateMachine.fromString(Files.readString(output.resolve("x.fsm.fsm")));
+		FiniteStateMachine fromGrammar = FiniteStateMachine.fromString(Files.readString(output.resolve("x.cfg.fsm")));
+		assertTrue(fromMachine.accepts(List.of(Symbol.of("a"))));
+		assertTrue(fromGrammar.accepts(List.of(Symbol.arrayOf("b", "b"))));
+	}
+}
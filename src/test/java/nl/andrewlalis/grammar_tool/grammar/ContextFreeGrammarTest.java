@@ -0,0 +1,163 @@
+package nl.andrewlalis.grammar_tool.grammar;
+
+import nl.andrewlalis.grammar_tool.machine.FiniteStateMachine;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ContextFreeGrammarTest {
+	private static final ContextFreeGrammar rightLinear = ContextFreeGrammar.fromProductionRules(
+			"S",
+			"S, A",
+			"a, b",
+			"S -> a,S | b,A",
+			"A -> b,A | ε"
+	);
+	private static final ContextFreeGrammar leftLinear = ContextFreeGrammar.fromProductionRules(
+			"S",
+			"S, A",
+			"a, b",
+			"S -> S,b | A,b",
+			"A -> A,a | ε"
+	);
+	private static final ContextFreeGrammar nonRegular = ContextFreeGrammar.fromProductionRules(
+			"S",
+			"S",
+			"a, b",
+			"S -> a,S,b | ε"
+	);
+
+	@Test
+	public void testIsRegular() {
+		assertTrue(rightLinear.isRightLinear());
+		assertFalse(rightLinear.isLeftLinear());
+		assertTrue(rightLinear.isRegular());
+		assertTrue(leftLinear.isLeftLinear());
+		assertFalse(leftLinear.isRightLinear());
+		assertTrue(leftLinear.isRegular());
+		assertFalse(nonRegular.isRegular());
+	}
+
+	@Test
+	public void testFindNonRegularRules() {
+		assertEquals(Set.of(), rightLinear.findNonRegularRules());
+		assertEquals(
+				Set.of(ProductionRule.of(Symbol.of("S"), Symbol.arrayOf("a", "S", "b"))),
+				nonRegular.findNonRegularRules()
+		);
+		ContextFreeGrammar mixed = ContextFreeGrammar.fromProductionRules(
+				"S",
+				"S, A",
+				"a, b",
+				"S -> a,S | b,A",
+				"A -> A,b | ε"
+		);
+		assertEquals(
+				Set.of(ProductionRule.of(Symbol.of("A"), Symbol.arrayOf("A", "b"))),
+				mixed.findNonRegularRules()
+		);
+	}
+
+	@Test
+	public void testGenerates() {
+		assertTrue(rightLinear.generates(List.of(Symbol.arrayOf("a", "a", "b", "b"))));
+		assertTrue(rightLinear.generates(List.of(Symbol.arrayOf("b"))));
+		assertFalse(rightLinear.generates(List.of(Symbol.arrayOf("a", "b", "a"))));
+		assertFalse(rightLinear.generates(List.of()));
+		assertTrue(leftLinear.generates(List.of(Symbol.arrayOf("a", "a", "b", "b"))));
+		assertFalse(leftLinear.generates(List.of(Symbol.arrayOf("b", "a"))));
+		assertThrows(IllegalStateException.class, () -> nonRegular.generates(List.of()));
+	}
+
+	@Test
+	public void testWriteToRoundTrip() {
+		for (var g : List.of(rightLinear, leftLinear, nonRegular)) {
+			assertEquals(g, ContextFreeGrammar.fromString(g.toString()));
+		}
+		ContextFreeGrammar sameLengthRules = ContextFreeGrammar.fromString("""
+				S -> a | b | A
+				A -> a,b | b,a
+				""");
+		assertEquals(5, sameLengthRules.getProductionRules().size());
+		assertEquals("S -> A | a | b\nA -> a,b | b,a\n", sameLengthRules.toString());
+
+		// The start symbol has no rules, so another non-terminal's rules come first.
+		ContextFreeGrammar startWithoutRules = ContextFreeGrammar.fromProductionRules("S", "S, A", "a", "A -> a");
+		assertEquals(startWithoutRules, ContextFreeGrammar.fromString(startWithoutRules.toString()));
+		ContextFreeGrammar noRules = ContextFreeGrammar.fromProductionRules("S", "S", "a");
+		assertEquals("start = S\nΣ = a\n", noRules.toString());
+		assertEquals(noRules, ContextFreeGrammar.fromString(noRules.toString()));
+		ContextFreeGrammar unusedSymbols = ContextFreeGrammar.fromProductionRules("S", "S, A, B", "a, b, c", "S -> a,A", "A -> b");
+		assertEquals(unusedSymbols, ContextFreeGrammar.fromString(unusedSymbols.toString()));
+
+		ContextFreeGrammar delimiters = FiniteStateMachine.fromString("""
+				-> q0 : "," -> q1, "|" -> q1
+				 * q1 : "ε" -> q1, "=" -> q1, "a->b" -> q1, "\\\\" -> q1
+				""").toGrammar();
+		assertEquals(Symbol.setOf(",", "|", "ε", "=", "a->b", "\\"), delimiters.getTerminalSymbols());
+		assertEquals(delimiters, ContextFreeGrammar.fromString(delimiters.toString()));
+		assertEquals(Set.of(ProductionRule.of(Symbol.of("S"), Symbol.arrayOf("a,b", "|"))), ProductionRule.of("S -> a\\,b,\\|"));
+	}
+
+	@Test
+	public void testLanguageProperties() {
+		assertFalse(rightLinear.isEmpty());
+		assertFalse(rightLinear.isFinite());
+		assertFalse(nonRegular.isFinite());
+		assertEquals(Symbol.setOf("S", "A"), rightLinear.getGeneratingSymbols());
+		assertEquals(Symbol.setOf("S", "A", "a", "b"), rightLinear.getReachableSymbols());
+
+		ContextFreeGrammar recursive = ContextFreeGrammar.fromString("""
+				S -> A,b | a | B
+				A -> a | ε | S
+				B -> B,a
+				""");
+		assertEquals(Symbol.setOf("S", "A"), recursive.getGeneratingSymbols());
+		assertFalse(recursive.isEmpty());
+		assertFalse(recursive.isFinite());
+
+		ContextFreeGrammar unitCycle = ContextFreeGrammar.fromString("""
+				S -> A | a,b | B,a
+				A -> S | C,S
+				B -> B,a
+				C -> ε
+				""");
+		assertTrue(unitCycle.isFinite());
+
+		ContextFreeGrammar empty = ContextFreeGrammar.fromString("""
+				S -> a,S
+				""");
+		assertTrue(empty.isEmpty());
+		assertTrue(empty.isFinite());
+		assertFalse(empty.generates(List.of()));
+	}
+
+	@Test
+	public void testTransformations() {
+		ProductionRule newRule = ProductionRule.of(Symbol.of("A"), Symbol.arrayOf("a", "A"));
+		ContextFreeGrammar extended = rightLinear.withRules(Set.of(newRule));
+		assertTrue(extended.getProductionRules().contains(newRule));
+		assertFalse(rightLinear.getProductionRules().contains(newRule));
+		assertSame(rightLinear.getNonTerminalSymbols(), extended.getNonTerminalSymbols());
+		assertEquals(rightLinear, extended.withoutRules(Set.of(newRule)));
+		assertEquals(rightLinear.hashCode(), extended.withoutRules(Set.of(newRule)).hashCode());
+		assertThrows(IllegalArgumentException.class, () -> rightLinear.withRules(Set.of(ProductionRule.of(Symbol.of("B"), Symbol.of("a")))));
+		assertThrows(IllegalArgumentException.class, () -> rightLinear.withRules(Set.of(ProductionRule.of(Symbol.of("A"), Symbol.of("c")))));
+		assertThrows(IllegalArgumentException.class, () -> rightLinear.withNonTerminalSymbols(Set.of(Symbol.of("a"))));
+		assertThrows(UnsupportedOperationException.class, () -> rightLinear.getProductionRules().add(newRule));
+
+		ContextFreeGrammar withB = rightLinear.withNonTerminalSymbols(Set.of(Symbol.of("B")))
+				.withTerminalSymbols(Set.of(Symbol.of("c")))
+				.withRules(Set.of(ProductionRule.of(Symbol.of("B"), Symbol.arrayOf("c", "S"))))
+				.withStartSymbol(Symbol.of("B"));
+		assertTrue(withB.generates(List.of(Symbol.arrayOf("c", "a", "b"))));
+		assertFalse(withB.generates(List.of(Symbol.arrayOf("a", "b"))));
+
+		ContextFreeGrammar productive = rightLinear.toProductiveForm();
+		assertEquals(Symbol.of("_T"), productive.getStartSymbol());
+		assertEquals(rightLinear.getProductionRules().size() + 1, productive.getProductionRules().size());
+	}
+}
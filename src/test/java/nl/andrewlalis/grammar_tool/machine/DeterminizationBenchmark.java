@@ -0,0 +1,67 @@
+package nl.andrewlalis.grammar_tool.machine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Compares the time taken by {@link FiniteStateMachine#toDeterministic()}
+ * with {@link FiniteStateMachine#toDeterministic(ForkJoinPool)} on pools of
+ * 1 up to N threads, where N is the number of available processors. This is
+ * not run as part of the tests. Usage:
+ * <pre><code>
+ *     DeterminizationBenchmark [n] [runs]
+ * </code></pre>
+ * where {@code n} determines the size of the machine, which has 2^n states
+ * once it is deterministic.
+ */
+public class DeterminizationBenchmark {
+	public static void main(String[] args) {
+		int n = args.length > 0 ? Integer.parseInt(args[0]) : 14;
+		int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		FiniteStateMachine nfa = MachineFixtures.nthSymbolFromEnd(n);
+		System.out.printf("NFA with %d states.%n", nfa.getStateCount());
+
+		FiniteStateMachine expected = nfa.toDeterministic();
+		System.out.printf("DFA with %d states.%n", expected.getStateCount());
+		long sequential = time(nfa::toDeterministic, runs);
+		System.out.printf("%-12s %8d ms%n", "sequential", sequential);
+
+		long baseline = -1;
+		List<Integer> threadCounts = new ArrayList<>();
+		for (int threads = 1; threads < Runtime.getRuntime().availableProcessors(); threads *= 2) {
+			threadCounts.add(threads);
+		}
+		threadCounts.add(Runtime.getRuntime().availableProcessors());
+		for (int threads : threadCounts) {
+			ForkJoinPool pool = new ForkJoinPool(threads);
+			try {
+				if (!nfa.toDeterministic(pool).equals(expected)) {
+					throw new IllegalStateException("Parallel result with " + threads + " threads differs from the sequential result.");
+				}
+				long millis = time(() -> nfa.toDeterministic(pool), runs);
+				if (baseline == -1) baseline = millis;
+				System.out.printf("%-12s %8d ms, speedup %.2fx%n", threads + " threads", millis, (double) baseline / Math.max(1, millis));
+			} finally {
+				pool.shutdown();
+			}
+		}
+	}
+
+	/**
+	 * @return The median time in milliseconds of the given number of runs,
+	 * after one warm-up run.
+	 */
+	private static long time(Runnable task, int runs) {
+		task.run();
+		long[] times = new long[runs];
+		for (int i = 0; i < runs; i++) {
+			long start = System.nanoTime();
+			task.run();
+			times[i] = (System.nanoTime() - start) / 1_000_000;
+		}
+		Arrays.sort(times);
+		return times[runs / 2];
+	}
+}
@@ -1,9 +1,15 @@
 package nl.andrewlalis.grammar_tool.machine;
 
+import nl.andrewlalis.grammar_tool.grammar.ContextFreeGrammar;
 import nl.andrewlalis.grammar_tool.grammar.Symbol;
 import org.junit.jupiter.api.Test;
 
+import java.io.IOException;
+import java.util.List;
+import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -95,4 +101,208 @@ public class FiniteStateMachineTest {
 		assertEquals(d1.getStateCount(), f1ToD1.getStateCount());
 		assertTrue(f1ToD1.isDeterministic());
 	}
+
+	@Test
+	public void testAccepts() {
+		FiniteStateMachine f2 = FiniteStateMachine.fromString(fsm2);
+		assertTrue(f2.accepts(List.of(Symbol.arrayOf("a"))));
+		assertTrue(f2.accepts(List.of(Symbol.arrayOf("a", "a", "b", "c", "c"))));
+		assertFalse(f2.accepts(List.of()));
+		assertFalse(f2.accepts(List.of(Symbol.arrayOf("c"))));
+		assertTrue(f2.toDeterministic().accepts(List.of(Symbol.arrayOf("a", "c"))));
+	}
+
+	@Test
+	public void testFromGrammar() {
+		ContextFreeGrammar g = ContextFreeGrammar.fromProductionRules(
+				"S",
+				"S, A",
+				"a, b",
+				"S -> a,b,S | A",
+				"A -> b,A | ε"
+		);
+		FiniteStateMachine f = FiniteStateMachine.fromGrammar(g);
+		assertTrue(f.accepts(List.of(Symbol.arrayOf("a", "b", "a", "b", "b"))));
+		assertTrue(f.accepts(List.of()));
+		assertFalse(f.accepts(List.of(Symbol.arrayOf("a"))));
+		assertFalse(f.accepts(List.of(Symbol.arrayOf("b", "a", "b"))));
+		ContextFreeGrammar nonRegular = ContextFreeGrammar.fromProductionRules(
+				"S",
+				"S",
+				"a, b",
+				"S -> a,S,b | ε"
+		);
+		assertThrows(IllegalStateException.class, () -> FiniteStateMachine.fromGrammar(nonRegular));
+	}
+
+	@Test
+	public void testToGrammar() {
+		FiniteStateMachine f3 = FiniteStateMachine.fromString(fsm3);
+		ContextFreeGrammar g3 = f3.toGrammar();
+		assertTrue(g3.isRightLinear());
+		for (var word : List.of(
+				List.of(Symbol.arrayOf("a")),
+				List.of(Symbol.arrayOf("a", "c", "b")),
+				List.of(Symbol.arrayOf("a", "c", "a", "c")),
+				List.of(Symbol.arrayOf("c")),
+				List.<Symbol>of()
+		)) {
+			assertEquals(f3.accepts(word), g3.generates(word));
+		}
+		FiniteStateMachine d3 = f3.toDeterministic();
+		ContextFreeGrammar dg3 = d3.toGrammar();
+		assertEquals(d3.getStateCount(), dg3.getNonTerminalSymbols().size());
+		assertTrue(dg3.generates(List.of(Symbol.arrayOf("a", "c", "b"))));
+	}
+
+	@Test
+	public void testToMinimal() {
+		FiniteStateMachine f = FiniteStateMachine.fromString("""
+				-> q0 : "a" -> q1, "b" -> q2
+				 * q1 : "a" -> q1, "b" -> q2
+				 * q2 : "a" -> q1, "b" -> q2
+				""");
+		FiniteStateMachine m = f.toMinimal();
+		assertEquals(2, m.getStateCount());
+		assertTrue(m.isDeterministic());
+		assertTrue(m.accepts(List.of(Symbol.arrayOf("a", "b", "b"))));
+		assertFalse(m.accepts(List.of()));
+		FiniteStateMachine withUselessStates = FiniteStateMachine.fromString("""
+				-> q0 : "a" -> q1, "b" -> d
+				 * q1 : "a" -> q1, "b" -> d
+				   d : "a" -> d, "b" -> d
+				   u : "a" -> q1
+				""");
+		assertEquals(2, withUselessStates.toMinimal().getStateCount());
+		FiniteStateMachine m3 = FiniteStateMachine.fromString(fsm3).toMinimal();
+		assertTrue(m3.isDeterministic());
+		assertTrue(m3.accepts(List.of(Symbol.arrayOf("a", "c", "b"))));
+		assertFalse(m3.accepts(List.of(Symbol.arrayOf("c"))));
+	}
+
+	@Test
+	public void testWriteToRoundTrip() {
+		for (String fsm : List.of(fsm1, fsm2, fsm3)) {
+			FiniteStateMachine f = FiniteStateMachine.fromString(fsm);
+			assertEquals(f, FiniteStateMachine.fromString(f.toString()));
+			FiniteStateMachine d = f.toDeterministic();
+			assertEquals(d, FiniteStateMachine.fromString(d.toString()));
+		}
+		FiniteStateMachine escaped = FiniteStateMachine.fromString("""
+				->* q0 : "\\"" -> q1, "\\\\" -> q0
+				    q1
+				""");
+		assertEquals(2, escaped.getStateCount());
+		assertTrue(escaped.accepts(List.of(Symbol.of("\\"))));
+		assertFalse(escaped.accepts(List.of(Symbol.of("\""))));
+		assertEquals(escaped, FiniteStateMachine.fromString(escaped.toString()));
+
+		FiniteStateMachine unusedSymbol = FiniteStateMachine.fromString("""
+				-> q0 : "a" -> q1, "c" -> d
+				 * q1
+				   d : "c" -> d
+				""");
+		FiniteStateMachine trimmed = unusedSymbol.toTrimmed();
+		assertEquals(trimmed, FiniteStateMachine.fromString(trimmed.toString()));
+		FiniteStateMachine minimal = unusedSymbol.toMinimal();
+		assertEquals(minimal, FiniteStateMachine.fromString(minimal.toString()));
+		assertTrue(minimal.toString().startsWith("Σ = \"a\", \"c\"\n"));
+		assertFalse(unusedSymbol.toString().startsWith("Σ"));
+	}
+
+	@Test
+	public void testWriteDotTo() throws IOException {
+		StringBuilder sb = new StringBuilder();
+		FiniteStateMachine.fromString(fsm2).writeDotTo(sb);
+		String dot = sb.toString();
+		assertTrue(dot.startsWith("digraph {"));
+		assertTrue(dot.contains("\"__start\" -> \"q0\";"));
+		sb.setLength(0);
+		FiniteStateMachine.fromString("""
+				-> q0 : "a" -> __start
+				 * __start
+				""").writeDotTo(sb);
+		assertTrue(sb.toString().contains("\"___start\" [shape=point];"));
+		assertTrue(sb.toString().contains("\"___start\" -> \"q0\";"));
+		assertTrue(dot.contains("\"q2\" [shape=doublecircle];"));
+		assertTrue(dot.contains("\"q1\" -> \"q2\" [label=\"ε\"];"));
+	}
+
+	@Test
+	public void testToDeterministicParallel() {
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			for (String fsm : List.of(fsm1, fsm2, fsm3)) {
+				FiniteStateMachine f = FiniteStateMachine.fromString(fsm);
+				assertEquals(f.toDeterministic(), f.toDeterministic(pool));
+			}
+			FiniteStateMachine blowup = MachineFixtures.nthSymbolFromEnd(10);
+			FiniteStateMachine d = blowup.toDeterministic(pool);
+			assertEquals(1024, d.getStateCount());
+			assertEquals(blowup.toDeterministic(), d);
+			ForkJoinPool singleThreadPool = new ForkJoinPool(1);
+			try {
+				assertEquals(d, blowup.toDeterministic(singleThreadPool));
+			} finally {
+				singleThreadPool.shutdown();
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void testLanguageProperties() {
+		FiniteStateMachine f1 = FiniteStateMachine.fromString(fsm1);
+		assertFalse(f1.isEmpty());
+		assertTrue(f1.isFinite());
+		assertEquals(Optional.of(List.of(Symbol.of("a"))), f1.getShortestAcceptedWord());
+		assertEquals(Optional.of(List.of(Symbol.of("a"))), f1.getLongestAcceptedWord());
+
+		FiniteStateMachine f3 = FiniteStateMachine.fromString(fsm3);
+		assertFalse(f3.isEmpty());
+		assertFalse(f3.isFinite());
+		assertEquals(1, f3.getShortestAcceptedWord().orElseThrow().size());
+		assertThrows(IllegalStateException.class, f3::getLongestAcceptedWord);
+
+		FiniteStateMachine epsilonCycle = FiniteStateMachine.fromString("""
+				-> q0 : "" -> q1, "a" -> q2
+				   q1 : "" -> q0, "b" -> q3
+				 * q2 : "c" -> q3
+				 * q3
+				   q4 : "a" -> q4, "a" -> q3
+				""");
+		assertTrue(epsilonCycle.isFinite());
+		assertEquals(1, epsilonCycle.getShortestAcceptedWord().orElseThrow().size());
+		assertEquals(Optional.of(List.of(Symbol.arrayOf("a", "c"))), epsilonCycle.getLongestAcceptedWord());
+		assertEquals(Set.of(State.of("q0"), State.of("q1"), State.of("q2"), State.of("q3")), epsilonCycle.getUsefulStates());
+		assertEquals(4, epsilonCycle.toTrimmed().getStateCount());
+
+		FiniteStateMachine empty = FiniteStateMachine.fromString("""
+				-> q0 : "a" -> q1
+				   q1 : "b" -> q0
+				 * q2
+				""");
+		assertTrue(empty.isEmpty());
+		assertTrue(empty.isFinite());
+		assertEquals(Optional.empty(), empty.getShortestAcceptedWord());
+		assertEquals(Optional.empty(), empty.getLongestAcceptedWord());
+		assertThrows(IllegalStateException.class, empty::toTrimmed);
+	}
+
+	@Test
+	public void testInterrupted() {
+		FiniteStateMachine machine = FiniteStateMachine.fromString(fsm2);
+		ContextFreeGrammar grammar = machine.toGrammar();
+		Thread.currentThread().interrupt();
+		try {
+			assertThrows(CancellationException.class, machine::isDeterministic);
+			assertThrows(CancellationException.class, machine::isEmpty);
+			assertThrows(CancellationException.class, machine::toTrimmed);
+			assertThrows(CancellationException.class, () -> FiniteStateMachine.fromGrammar(grammar));
+		} finally {
+			Thread.interrupted();
+		}
+		assertFalse(machine.isEmpty());
+	}
 }
@@ -0,0 +1,32 @@
+package nl.andrewlalis.grammar_tool.machine;
+
+import nl.andrewlalis.grammar_tool.grammar.Symbol;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Machines which are shared by the tests and benchmarks.
+ */
+final class MachineFixtures {
+	private MachineFixtures() {}
+
+	/**
+	 * Builds a machine which accepts all words over {a, b} whose n-th symbol
+	 * from the end is an "a". The deterministic version of this machine has
+	 * 2^n states.
+	 */
+	static FiniteStateMachine nthSymbolFromEnd(int n) {
+		Symbol a = Symbol.of("a");
+		Symbol b = Symbol.of("b");
+		Set<Transition> transitions = new HashSet<>();
+		transitions.add(new Transition(State.of("q0"), a, State.of("q0")));
+		transitions.add(new Transition(State.of("q0"), b, State.of("q0")));
+		transitions.add(new Transition(State.of("q0"), a, State.of("q1")));
+		for (int i = 1; i < n; i++) {
+			transitions.add(new Transition(State.of("q" + i), a, State.of("q" + (i + 1))));
+			transitions.add(new Transition(State.of("q" + i), b, State.of("q" + (i + 1))));
+		}
+		return FiniteStateMachine.fromTransitions(State.of("q0"), transitions, Set.of(State.of("q" + n)));
+	}
+}
@@ -0,0 +1,88 @@
+package nl.andrewlalis.grammar_tool.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PersistentSetTest {
+	/**
+	 * Key with a deliberately poor hash code, to force collisions.
+	 */
+	private static class CollidingKey {
+		private final int value;
+
+		private CollidingKey(int value) {
+			this.value = value;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof CollidingKey && ((CollidingKey) o).value == this.value;
+		}
+
+		@Override
+		public int hashCode() {
+			return this.value % 7;
+		}
+	}
+
+	@Test
+	public void testMatchesHashSet() {
+		Random random = new Random(42);
+		Set<Integer> expected = new HashSet<>();
+		PersistentSet<Integer> actual = PersistentSet.empty();
+		for (int i = 0; i < 20_000; i++) {
+			int value = random.nextInt(5_000) - 2_500;
+			if (random.nextBoolean()) {
+				expected.add(value);
+				actual = actual.plus(value);
+			} else {
+				expected.remove(value);
+				actual = actual.minus(value);
+			}
+		}
+		assertEquals(expected.size(), actual.size());
+		assertEquals(expected.hashCode(), actual.hashCode());
+		assertEquals(expected, actual);
+		assertEquals(actual, expected);
+		assertEquals(expected, new HashSet<>(actual));
+	}
+
+	@Test
+	public void testCollisions() {
+		PersistentSet<CollidingKey> set = PersistentSet.empty();
+		for (int i = 0; i < 100; i++) {
+			set = set.plus(new CollidingKey(i));
+		}
+		assertEquals(100, set.size());
+		for (int i = 0; i < 100; i++) {
+			assertTrue(set.contains(new CollidingKey(i)));
+		}
+		for (int i = 0; i < 100; i += 2) {
+			set = set.minus(new CollidingKey(i));
+		}
+		assertEquals(50, set.size());
+		assertFalse(set.contains(new CollidingKey(0)));
+		assertTrue(set.contains(new CollidingKey(1)));
+		int count = 0;
+		for (CollidingKey ignored : set) count++;
+		assertEquals(50, count);
+	}
+
+	@Test
+	public void testPersistence() {
+		PersistentSet<String> a = PersistentSet.copyOf(List.of("a", "b", "c"));
+		PersistentSet<String> b = a.plus("d");
+		PersistentSet<String> c = b.minus("a");
+		assertEquals(Set.of("a", "b", "c"), a);
+		assertEquals(Set.of("a", "b", "c", "d"), b);
+		assertEquals(Set.of("b", "c", "d"), c);
+		assertSame(a, a.plus("a"));
+		assertSame(a, a.minus("z"));
+		assertSame(a, PersistentSet.copyOf(a));
+		assertTrue(a.minus("a").minus("b").minus("c").isEmpty());
+		assertThrows(UnsupportedOperationException.class, () -> a.add("e"));
+	}
+}